@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+/**
+ * Aggregator is the engine-neutral form of the aggregations behind the UDAFs: a mutable state is
+ * created for each group, values are added to it, states built separately (by other threads or
+ * other tasks) are combined, and a state is finished into the result.
+ *
+ * It has the same four operations as a Java 8 Collector, and AggregatorCollectors turns it into
+ * one. The aggregators of Aggregators are stateless and can be shared by any number of threads,
+ * their states cannot.
+ * @author Francois Rousseau
+ */
+public interface Aggregator<T,A,R> {
+
+  /** Returns a new empty state. */
+  A newState();
+
+  /** Adds a value to a state. */
+  void add(A state, T value);
+
+  /**
+   * Combines two states, right holding the values added after the ones of left, and returns the
+   * result, which may be either of them. Neither state can be used afterwards.
+   */
+  A combine(A left, A right);
+
+  /** Returns the result of a state. */
+  R finish(A state);
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collector;
+
+/**
+ * AggregatorCollectors exposes the aggregators of Aggregators as Collectors, for streams and
+ * fork-join tasks. A parallel stream gives each thread a state of its own and combines the states
+ * in encounter order, as Aggregators.aggregate does with an ExecutorService.
+ *
+ * This class needs Java 8, unlike the rest of the core, which the Hive jar also compiles for the
+ * Java 6 runtime of Hive 0.9; it is only part of the core artifact.
+ * @author Francois Rousseau
+ */
+public final class AggregatorCollectors {
+
+  private AggregatorCollectors() {
+  }
+
+  /** Returns a Collector running the aggregator. */
+  public static <T,A,R> Collector<T,A,R> of(Aggregator<T,A,R> aggregator,
+      Collector.Characteristics... characteristics) {
+    return Collector.of(aggregator::newState, aggregator::add, aggregator::combine,
+        aggregator::finish, characteristics);
+  }
+
+  /** Returns the Collector of to_list: the values in encounter order. */
+  public static <T> Collector<T,?,List<T>> toList() {
+    return of(Aggregators.<T>toList(), Collector.Characteristics.IDENTITY_FINISH);
+  }
+
+  /** Returns the Collector of to_map: the last value in encounter order for each key. */
+  public static <K,V> Collector<Map.Entry<K,V>,?,Map<K,V>> toMap() {
+    return of(Aggregators.<K,V>toMap(), Collector.Characteristics.IDENTITY_FINISH);
+  }
+
+  /** Returns the Collector of counter_map: the number of times each key was collected. */
+  public static <K> Collector<K,?,Map<K,Long>> counterMap() {
+    return of(Aggregators.<K>counterMap(), Collector.Characteristics.UNORDERED);
+  }
+
+  /** Returns the Collector of string_builder: the concatenation, null if nothing was collected. */
+  public static Collector<Object,?,String> stringBuilder() {
+    return of(Aggregators.stringBuilder());
+  }
+
+}
@@ -0,0 +1,337 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Aggregators gives the Aggregator behind each UDAF (to_list, to_map, counter_map and
+ * string_builder) so that they can be used outside of Hive, and runs aggregations in parallel.
+ * They depend on neither Hive nor Hadoop: the UDAF evaluators adapt them, e.g. they convert the
+ * counters of counter_map to writables when they output them.
+ * @author Francois Rousseau
+ */
+public final class Aggregators {
+
+  private Aggregators() {
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final ToList TO_LIST = new ToList();
+  @SuppressWarnings("rawtypes")
+  private static final ToMap TO_MAP = new ToMap();
+  @SuppressWarnings("rawtypes")
+  private static final CounterMap COUNTER_MAP = new CounterMap();
+  private static final StringBuilderAggregator STRING_BUILDER = new StringBuilderAggregator();
+
+  /** Returns the aggregator of to_list: the values in the order they were added. */
+  @SuppressWarnings("unchecked")
+  public static <T> ToList<T> toList() {
+    return TO_LIST;
+  }
+
+  /** Returns the aggregator of to_map: the last value added for each key. */
+  @SuppressWarnings("unchecked")
+  public static <K,V> ToMap<K,V> toMap() {
+    return TO_MAP;
+  }
+
+  /** Returns the aggregator of counter_map: the number of times each key was added. */
+  @SuppressWarnings("unchecked")
+  public static <K> CounterMap<K> counterMap() {
+    return COUNTER_MAP;
+  }
+
+  /** Returns the aggregator of string_builder: the concatenation of the values. */
+  public static StringBuilderAggregator stringBuilder() {
+    return STRING_BUILDER;
+  }
+
+  /** Aggregates values sequentially. */
+  public static <T,A,R> R aggregate(Aggregator<T,A,R> aggregator, Iterable<? extends T> values) {
+    A state = aggregator.newState();
+    for (T value: values) {
+      aggregator.add(state, value);
+    }
+    return aggregator.finish(state);
+  }
+
+  /**
+   * Aggregates values in parallel: the values are split in as many ranges as the parallelism,
+   * each range is aggregated by a task of the executor and the states are combined as a tree.
+   */
+  public static <T,A,R> R aggregate(final Aggregator<T,A,R> aggregator,
+      final List<? extends T> values, ExecutorService executor, int parallelism)
+      throws InterruptedException, ExecutionException {
+    int ranges = Math.max(1, Math.min(parallelism, values.size()));
+    List<Future<A>> futures = new ArrayList<Future<A>>(ranges);
+    for (int i = 0; i < ranges; i++) {
+      final int from = (int) ((long) values.size() * i / ranges);
+      final int to = (int) ((long) values.size() * (i + 1) / ranges);
+      futures.add(executor.submit(new Callable<A>() {
+        public A call() {
+          A state = aggregator.newState();
+          for (T value: values.subList(from, to)) {
+            aggregator.add(state, value);
+          }
+          return state;
+        }
+      }));
+    }
+    List<A> states = new ArrayList<A>(ranges);
+    for (Future<A> future: futures) {
+      states.add(future.get());
+    }
+    return aggregator.finish(combine(aggregator, states, executor));
+  }
+
+  /**
+   * Combines states in parallel, pairwise, keeping their order. Only the calling thread waits,
+   * so any executor can be used.
+   */
+  public static <A> A combine(final Aggregator<?,A,?> aggregator, List<A> states,
+      ExecutorService executor) throws InterruptedException, ExecutionException {
+    if (states.isEmpty()) {
+      return aggregator.newState();
+    }
+    while (states.size() > 1) {
+      List<Future<A>> futures = new ArrayList<Future<A>>(states.size() / 2);
+      for (int i = 0; i + 1 < states.size(); i += 2) {
+        final A left = states.get(i);
+        final A right = states.get(i + 1);
+        futures.add(executor.submit(new Callable<A>() {
+          public A call() {
+            return aggregator.combine(left, right);
+          }
+        }));
+      }
+      List<A> combined = new ArrayList<A>((states.size() + 1) / 2);
+      for (Future<A> future: futures) {
+        combined.add(future.get());
+      }
+      if (states.size() % 2 == 1) {
+        combined.add(states.get(states.size() - 1));
+      }
+      states = combined;
+    }
+    return states.get(0);
+  }
+
+  /**
+   * The aggregator of to_list.
+   */
+  public static final class ToList<T> implements Aggregator<T,List<T>,List<T>> {
+
+    private ToList() {
+    }
+
+    public List<T> newState() {
+      return new ArrayList<T>();
+    }
+
+    /** Returns a new empty state expected to hold that many values. */
+    public List<T> newState(int expectedSize) {
+      return new ArrayList<T>(expectedSize);
+    }
+
+    public void add(List<T> state, T value) {
+      state.add(value);
+    }
+
+    public List<T> combine(List<T> left, List<T> right) {
+      left.addAll(right);
+      return left;
+    }
+
+    public List<T> finish(List<T> state) {
+      return state;
+    }
+  }
+
+  /**
+   * The aggregator of to_map, whose values are the entries to put.
+   */
+  public static final class ToMap<K,V> implements Aggregator<Map.Entry<K,V>,Map<K,V>,Map<K,V>> {
+
+    private ToMap() {
+    }
+
+    public Map<K,V> newState() {
+      return newState(CompactMap.INLINE_CAPACITY);
+    }
+
+    /** Returns a new empty state expected to hold that many keys. */
+    public Map<K,V> newState(int expectedSize) {
+      return new CompactMap<K,V>(expectedSize);
+    }
+
+    public void add(Map<K,V> state, Map.Entry<K,V> entry) {
+      put(state, entry.getKey(), entry.getValue());
+    }
+
+    /** Maps a key to a value, replacing its previous value. */
+    public void put(Map<K,V> state, K key, V value) {
+      state.put(key, value);
+    }
+
+    public Map<K,V> combine(Map<K,V> left, Map<K,V> right) {
+      // the values of right were added last and win
+      left.putAll(right);
+      return left;
+    }
+
+    public Map<K,V> finish(Map<K,V> state) {
+      return state;
+    }
+  }
+
+  /**
+   * The aggregator of counter_map. Its states map each key to a mutable Counter, and its result
+   * maps each key to its count.
+   */
+  public static final class CounterMap<K>
+      implements Aggregator<K,Map<K,Counter>,Map<K,Long>> {
+
+    private CounterMap() {
+    }
+
+    public Map<K,Counter> newState() {
+      return newState(CompactMap.INLINE_CAPACITY);
+    }
+
+    /** Returns a new empty state expected to hold that many keys. */
+    public Map<K,Counter> newState(int expectedSize) {
+      return new CompactMap<K,Counter>(expectedSize);
+    }
+
+    public void add(Map<K,Counter> state, K key) {
+      add(state, key, 1L);
+    }
+
+    /** Adds count to the counter of a key. */
+    public void add(Map<K,Counter> state, K key, long count) {
+      if (!increment(state, key, count)) {
+        state.put(key, new Counter(count));
+      }
+    }
+
+    /**
+     * Adds count to the counter of a key if it has one and returns false otherwise, so that the
+     * caller can look keys up with a reused instance and only copy the new ones for put.
+     */
+    public boolean increment(Map<K,Counter> state, Object key, long count) {
+      Counter counter = state.get(key);
+      if (counter == null) {
+        return false;
+      }
+      counter.add(count);
+      return true;
+    }
+
+    /** Sets the counter of a key that has none. */
+    public void put(Map<K,Counter> state, K key, long count) {
+      state.put(key, new Counter(count));
+    }
+
+    /**
+     * Subtracts count from the counter of a key, which is evicted when it reaches zero, and
+     * returns false if the key has no counter. Used to move a sliding window.
+     */
+    public boolean decrement(Map<K,Counter> state, Object key, long count) {
+      Counter counter = state.get(key);
+      if (counter == null) {
+        return false;
+      }
+      if (counter.get() <= count) {
+        state.remove(key);
+      } else {
+        counter.add(-count);
+      }
+      return true;
+    }
+
+    public Map<K,Counter> combine(Map<K,Counter> left, Map<K,Counter> right) {
+      // the smaller state is added to the larger one, whose counters are reused
+      Map<K,Counter> into = left.size() >= right.size() ? left : right;
+      Map<K,Counter> from = into == left ? right : left;
+      for (Map.Entry<K,Counter> entry: from.entrySet()) {
+        Counter counter = into.get(entry.getKey());
+        if (counter == null) {
+          into.put(entry.getKey(), entry.getValue());
+        } else {
+          counter.add(entry.getValue().get());
+        }
+      }
+      return into;
+    }
+
+    /** Returns the counts, in the order of the keys of the state. */
+    public Map<K,Long> finish(Map<K,Counter> state) {
+      Map<K,Long> result = new LinkedHashMap<K,Long>(state.size() * 4 / 3 + 1);
+      for (Map.Entry<K,Counter> entry: state.entrySet()) {
+        result.put(entry.getKey(), entry.getValue().get());
+      }
+      return result;
+    }
+  }
+
+  /**
+   * The aggregator of string_builder.
+   */
+  public static final class StringBuilderAggregator
+      implements Aggregator<Object,StringBuilder,String> {
+
+    private StringBuilderAggregator() {
+    }
+
+    public StringBuilder newState() {
+      return new StringBuilder();
+    }
+
+    /** Returns a new empty state expected to hold that many characters. */
+    public StringBuilder newState(int expectedLength) {
+      return new StringBuilder(expectedLength);
+    }
+
+    public void add(StringBuilder state, Object value) {
+      state.append(value);
+    }
+
+    /** Appends an integer value without converting it to a string first. */
+    public void add(StringBuilder state, long value) {
+      state.append(value);
+    }
+
+    public StringBuilder combine(StringBuilder left, StringBuilder right) {
+      return left.append(right);
+    }
+
+    /** Returns the concatenation, or null if nothing was added. */
+    public String finish(StringBuilder state) {
+      return state.length() == 0 ? null : state.toString();
+    }
+  }
+
+}
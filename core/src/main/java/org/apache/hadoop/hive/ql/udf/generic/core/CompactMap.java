@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * CompactMap is a map for aggregation buffers that are usually small. Up to INLINE_CAPACITY
+ * entries, the keys and values are stored in a flat array scanned linearly, which avoids the
+ * table and the entry objects of a HashMap. Past that size, the entries are promoted to a
+ * HashMap. Clearing a map that held few entries brings it back to the inline representation.
+ * @author Francois Rousseau
+ */
+public final class CompactMap<K,V> extends AbstractMap<K,V> {
+
+  public static final int INLINE_CAPACITY = 8;
+
+  // keys and values interleaved, with the hash of the keys aside to speed up the scan
+  private Object[] entries;
+  private int[] hashes;
+  private int size;
+
+  // the entries once promoted
+  private HashMap<K,V> delegate;
+
+  private final int expectedSize;
+
+  /** Creates a map expected to hold that many entries. */
+  public CompactMap(int expectedSize) {
+    this.expectedSize = expectedSize;
+    if (expectedSize > INLINE_CAPACITY) {
+      delegate = new HashMap<K,V>(expectedSize * 4 / 3 + 1);
+    }
+  }
+
+  private static int hash(Object key) {
+    return key == null ? 0 : key.hashCode();
+  }
+
+  private int indexOf(Object key) {
+    int h = hash(key);
+    for (int i = 0; i < size; i++) {
+      if (hashes[i] == h) {
+        Object k = entries[2 * i];
+        if (k == key || (key != null && key.equals(k))) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return delegate != null ? delegate.size() : size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate != null ? delegate.containsKey(key) : indexOf(key) >= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(Object key) {
+    if (delegate != null) {
+      return delegate.get(key);
+    }
+    int i = indexOf(key);
+    return i >= 0 ? (V) entries[2 * i + 1] : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V put(K key, V value) {
+    if (delegate != null) {
+      return delegate.put(key, value);
+    }
+    int i = indexOf(key);
+    if (i >= 0) {
+      V previous = (V) entries[2 * i + 1];
+      entries[2 * i + 1] = value;
+      return previous;
+    }
+    if (size == INLINE_CAPACITY) {
+      promote();
+      return delegate.put(key, value);
+    }
+    if (entries == null || 2 * size == entries.length) {
+      int capacity = entries == null
+          ? Math.min(Math.max(expectedSize, 1), INLINE_CAPACITY)
+          : Math.min(2 * hashes.length, INLINE_CAPACITY);
+      entries = entries == null ? new Object[2 * capacity] : Arrays.copyOf(entries, 2 * capacity);
+      hashes = hashes == null ? new int[capacity] : Arrays.copyOf(hashes, capacity);
+    }
+    entries[2 * size] = key;
+    entries[2 * size + 1] = value;
+    hashes[size] = hash(key);
+    size++;
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void promote() {
+    delegate = new HashMap<K,V>(Math.max(expectedSize, 2 * INLINE_CAPACITY) * 4 / 3 + 1);
+    for (int i = 0; i < size; i++) {
+      delegate.put((K) entries[2 * i], (V) entries[2 * i + 1]);
+    }
+    entries = null;
+    hashes = null;
+    size = 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    if (delegate != null) {
+      return delegate.remove(key);
+    }
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    V previous = (V) entries[2 * i + 1];
+    removeAt(i);
+    return previous;
+  }
+
+  private void removeAt(int i) {
+    size--;
+    // the last entry takes the place of the removed one
+    entries[2 * i] = entries[2 * size];
+    entries[2 * i + 1] = entries[2 * size + 1];
+    hashes[i] = hashes[size];
+    entries[2 * size] = null;
+    entries[2 * size + 1] = null;
+  }
+
+  @Override
+  public void clear() {
+    if (delegate != null) {
+      if (delegate.size() > INLINE_CAPACITY) {
+        delegate.clear();
+        return;
+      }
+      delegate = null;
+    }
+    if (entries != null) {
+      Arrays.fill(entries, 0, 2 * size, null);
+    }
+    size = 0;
+  }
+
+  @Override
+  public Set<Map.Entry<K,V>> entrySet() {
+    if (delegate != null) {
+      return delegate.entrySet();
+    }
+    return new AbstractSet<Map.Entry<K,V>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Map.Entry<K,V>> iterator() {
+        return new Iterator<Map.Entry<K,V>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @Override
+          public Map.Entry<K,V> next() {
+            if (next >= size) {
+              throw new NoSuchElementException();
+            }
+            return new InlineEntry(next++);
+          }
+
+          @Override
+          public void remove() {
+            removeAt(--next);
+          }
+        };
+      }
+    };
+  }
+
+  /** Entry backed by a slot of the inline array. */
+  private final class InlineEntry implements Map.Entry<K,V> {
+    private final int index;
+
+    InlineEntry(int index) {
+      this.index = index;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K getKey() {
+      return (K) entries[2 * index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getValue() {
+      return (V) entries[2 * index + 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V setValue(V value) {
+      V previous = (V) entries[2 * index + 1];
+      entries[2 * index + 1] = value;
+      return previous;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash(getKey()) ^ hash(getValue());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+      return (getKey() == null ? e.getKey() == null : getKey().equals(e.getKey()))
+          && (getValue() == null ? e.getValue() == null : getValue().equals(e.getValue()));
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+/**
+ * Counter is the mutable counter of a key in the states of counter_map, so that counting a key
+ * which was already seen updates its counter in place instead of replacing it in the map.
+ * @author Francois Rousseau
+ */
+public final class Counter implements Comparable<Counter> {
+
+  private long count;
+
+  public Counter(long count) {
+    this.count = count;
+  }
+
+  public long get() {
+    return count;
+  }
+
+  public void set(long count) {
+    this.count = count;
+  }
+
+  /** Adds count to the counter. */
+  public void add(long count) {
+    this.count += count;
+  }
+
+  public int compareTo(Counter other) {
+    return count < other.count ? -1 : (count == other.count ? 0 : 1);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Counter && ((Counter) o).count == count;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (count ^ (count >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(count);
+  }
+
+}
@@ -0,0 +1,65 @@
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class AggregatorCollectorsTest {
+
+  private static List<Integer> values(int n) {
+    List<Integer> values = new ArrayList<Integer>(n);
+    for (int i = 0; i < n; i++) {
+      values.add((i * 7) % 13);
+    }
+    return values;
+  }
+
+  @Test
+  public void testToList() {
+    List<Integer> values = values(10000);
+    assertEquals(values, values.stream().collect(AggregatorCollectors.toList()));
+    assertEquals(values, values.parallelStream().collect(AggregatorCollectors.toList()));
+  }
+
+  @Test
+  public void testToMap() {
+    List<Map.Entry<Integer,Integer>> entries = IntStream.range(0, 10000)
+        .mapToObj(i -> new AbstractMap.SimpleEntry<Integer,Integer>(i % 13, i))
+        .collect(Collectors.toList());
+    Map<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+    for (int i = 9987; i < 10000; i++) {
+      expected.put(i % 13, i);
+    }
+    assertEquals(expected, new TreeMap<Integer,Integer>(
+        entries.parallelStream().collect(AggregatorCollectors.toMap())));
+  }
+
+  @Test
+  public void testCounterMap() {
+    Map<Integer,Long> expected = new TreeMap<Integer,Long>();
+    for (int i = 0; i < 13; i++) {
+      expected.put(i, 1000L);
+    }
+    assertEquals(expected, new TreeMap<Integer,Long>(
+        values(13000).parallelStream().collect(AggregatorCollectors.counterMap())));
+  }
+
+  @Test
+  public void testStringBuilder() {
+    String expected = IntStream.range(0, 1000).mapToObj(String::valueOf)
+        .collect(Collectors.joining());
+    assertEquals(expected, IntStream.range(0, 1000).boxed().parallel()
+        .collect(AggregatorCollectors.stringBuilder()));
+    assertNull(new ArrayList<Object>().stream().collect(AggregatorCollectors.stringBuilder()));
+  }
+
+}
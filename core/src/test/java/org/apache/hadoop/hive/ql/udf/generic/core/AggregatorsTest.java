@@ -0,0 +1,100 @@
+package org.apache.hadoop.hive.ql.udf.generic.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AggregatorsTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  private static List<Integer> values(int n) {
+    List<Integer> values = new ArrayList<Integer>(n);
+    for (int i = 0; i < n; i++) {
+      values.add((i * 7) % 13);
+    }
+    return values;
+  }
+
+  @Test
+  public void testToList() throws Exception {
+    List<Integer> values = values(1000);
+    Aggregators.ToList<Integer> aggregator = Aggregators.toList();
+    assertEquals(values, Aggregators.aggregate(aggregator, values));
+    assertEquals(values, Aggregators.aggregate(aggregator, values, executor, 7));
+  }
+
+  @Test
+  public void testToMap() throws Exception {
+    List<Map.Entry<Integer,Integer>> entries = new ArrayList<Map.Entry<Integer,Integer>>();
+    for (int i = 0; i < 1000; i++) {
+      entries.add(new AbstractMap.SimpleEntry<Integer,Integer>(i % 13, i));
+    }
+    Aggregators.ToMap<Integer,Integer> aggregator = Aggregators.toMap();
+    Map<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+    for (int i = 987; i < 1000; i++) {
+      expected.put(i % 13, i);
+    }
+    assertEquals(expected,
+        new TreeMap<Integer,Integer>(Aggregators.aggregate(aggregator, entries)));
+    assertEquals(expected,
+        new TreeMap<Integer,Integer>(Aggregators.aggregate(aggregator, entries, executor, 7)));
+  }
+
+  @Test
+  public void testCounterMap() throws Exception {
+    List<Integer> values = values(1300);
+    Aggregators.CounterMap<Integer> aggregator = Aggregators.counterMap();
+    Map<Integer,Long> expected = new TreeMap<Integer,Long>();
+    for (int i = 0; i < 13; i++) {
+      expected.put(i, 100L);
+    }
+    assertEquals(expected,
+        new TreeMap<Integer,Long>(Aggregators.aggregate(aggregator, values)));
+    assertEquals(expected,
+        new TreeMap<Integer,Long>(Aggregators.aggregate(aggregator, values, executor, 7)));
+  }
+
+  @Test
+  public void testCounterMapDecrement() throws Exception {
+    Aggregators.CounterMap<Integer> aggregator = Aggregators.counterMap();
+    Map<Integer,Counter> state = aggregator.newState();
+    for (Integer value: values(1300)) {
+      aggregator.add(state, value);
+    }
+    assertTrue(aggregator.decrement(state, 3, 40L));
+    assertEquals(60L, state.get(3).get());
+    assertTrue(aggregator.decrement(state, 3, 60L));
+    assertNull(state.get(3));
+    assertFalse(aggregator.decrement(state, 3, 1L));
+    assertEquals(12, state.size());
+  }
+
+  @Test
+  public void testStringBuilder() throws Exception {
+    List<String> values = Arrays.asList("a", "b", "c", "d", "e");
+    Aggregators.StringBuilderAggregator aggregator = Aggregators.stringBuilder();
+    assertEquals("abcde", Aggregators.aggregate(aggregator, values));
+    assertEquals("abcde", Aggregators.aggregate(aggregator, values, executor, 4));
+    assertNull(Aggregators.aggregate(aggregator, new ArrayList<String>(), executor, 4));
+  }
+
+}
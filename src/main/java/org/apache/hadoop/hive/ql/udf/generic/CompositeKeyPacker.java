@@ -0,0 +1,365 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * CompositeKeyPacker packs a tuple of primitive values into a single compact key: a long when
+ * all the values are small integers that fit together in 64 bits, a length-prefixed byte slice
+ * otherwise. Each value is preceded by a null flag so that null values can be packed as well.
+ *
+ * Packing reuses a probe key so that looking up an existing key does not allocate anything; the
+ * probe must be copied before being stored.
+ * @author Francois Rousseau
+ */
+final class CompositeKeyPacker {
+
+  private final PrimitiveCategory[] categories;
+  private final boolean packedAsLong;
+
+  private final LongWritable longProbe = new LongWritable();
+  private final PackedKey bytesProbe = new PackedKey();
+
+  CompositeKeyPacker(PrimitiveObjectInspector[] inputOIs) {
+    categories = new PrimitiveCategory[inputOIs.length];
+    int bits = 0;
+    for (int i = 0; i < inputOIs.length; i++) {
+      categories[i] = inputOIs[i].getPrimitiveCategory();
+      int width = widthAsLong(categories[i]);
+      bits = (width < 0 || bits < 0) ? -1 : bits + width + 1;
+    }
+    packedAsLong = bits >= 0 && bits <= Long.SIZE;
+  }
+
+  /** Returns the number of bits needed to pack the category into a long, -1 if it can't be. */
+  private static int widthAsLong(PrimitiveCategory category) {
+    switch (category) {
+      case BOOLEAN:
+        return 1;
+      case BYTE:
+        return Byte.SIZE;
+      case SHORT:
+        return Short.SIZE;
+      case INT:
+        return Integer.SIZE;
+      default:
+        return -1;
+    }
+  }
+
+  static boolean isSupported(PrimitiveCategory category) {
+    switch (category) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+      case TIMESTAMP:
+      case BINARY:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Returns the standard ObjectInspector of the unpacked keys. */
+  StructObjectInspector getStandardStructObjectInspector() {
+    List<String> names = new ArrayList<String>(categories.length);
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>(categories.length);
+    for (int i = 0; i < categories.length; i++) {
+      names.add("col" + (i + 1));
+      ois.add(PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(categories[i]));
+    }
+    return ObjectInspectorFactory.getStandardStructObjectInspector(names, ois);
+  }
+
+  /** Packs the values into the probe key and returns it. */
+  Object pack(Object[] values, PrimitiveObjectInspector[] ois) {
+    if (packedAsLong) {
+      long packed = 0L;
+      for (int i = 0; i < categories.length; i++) {
+        int width = widthAsLong(categories[i]);
+        packed <<= width + 1;
+        if (values[i] != null) {
+          packed |= (1L << width) | (encodeAsLong(values[i], ois[i]) & ((1L << width) - 1));
+        }
+      }
+      longProbe.set(packed);
+      return longProbe;
+    }
+    bytesProbe.length = 0;
+    for (int i = 0; i < categories.length; i++) {
+      if (values[i] == null) {
+        bytesProbe.writeByte(0);
+      } else {
+        bytesProbe.writeByte(1);
+        encodeAsBytes(values[i], ois[i], bytesProbe);
+      }
+    }
+    bytesProbe.hash = WritableComparator.hashBytes(bytesProbe.bytes, bytesProbe.length);
+    return bytesProbe;
+  }
+
+  /** Returns a copy of a probe key that can be stored. */
+  Object copy(Object probe) {
+    if (packedAsLong) {
+      return new LongWritable(((LongWritable) probe).get());
+    }
+    PackedKey key = (PackedKey) probe;
+    PackedKey result = new PackedKey();
+    result.bytes = Arrays.copyOf(key.bytes, key.length);
+    result.length = key.length;
+    result.hash = key.hash;
+    return result;
+  }
+
+  /** Unpacks a stored key into a standard struct. */
+  List<Object> unpack(Object key) {
+    Object[] fields = new Object[categories.length];
+    if (packedAsLong) {
+      long packed = ((LongWritable) key).get();
+      for (int i = categories.length - 1; i >= 0; i--) {
+        int width = widthAsLong(categories[i]);
+        if ((packed & (1L << width)) != 0) {
+          fields[i] = decodeFromLong(categories[i], packed & ((1L << width) - 1));
+        }
+        packed >>>= width + 1;
+      }
+    } else {
+      PackedKey packed = (PackedKey) key;
+      int[] offset = new int[] {0};
+      for (int i = 0; i < categories.length; i++) {
+        if (packed.bytes[offset[0]++] != 0) {
+          fields[i] = decodeFromBytes(categories[i], packed.bytes, offset);
+        }
+      }
+    }
+    return Arrays.asList(fields);
+  }
+
+  // integers are shifted to be unsigned so that their order is kept
+  private static long encodeAsLong(Object o, PrimitiveObjectInspector oi) {
+    switch (oi.getPrimitiveCategory()) {
+      case BOOLEAN:
+        return PrimitiveObjectInspectorUtils.getBoolean(o, oi) ? 1L : 0L;
+      case BYTE:
+        return PrimitiveObjectInspectorUtils.getByte(o, oi) - Byte.MIN_VALUE;
+      case SHORT:
+        return PrimitiveObjectInspectorUtils.getShort(o, oi) - Short.MIN_VALUE;
+      default:
+        return (long) PrimitiveObjectInspectorUtils.getInt(o, oi) - Integer.MIN_VALUE;
+    }
+  }
+
+  private static Object decodeFromLong(PrimitiveCategory category, long encoded) {
+    switch (category) {
+      case BOOLEAN:
+        return new BooleanWritable(encoded != 0L);
+      case BYTE:
+        return new ByteWritable((byte) (encoded + Byte.MIN_VALUE));
+      case SHORT:
+        return new ShortWritable((short) (encoded + Short.MIN_VALUE));
+      default:
+        return new IntWritable((int) (encoded + Integer.MIN_VALUE));
+    }
+  }
+
+  private static void encodeAsBytes(Object o, PrimitiveObjectInspector oi, PackedKey out) {
+    switch (oi.getPrimitiveCategory()) {
+      case BOOLEAN:
+        out.writeByte(PrimitiveObjectInspectorUtils.getBoolean(o, oi) ? 1 : 0);
+        break;
+      case BYTE:
+        out.writeByte(PrimitiveObjectInspectorUtils.getByte(o, oi));
+        break;
+      case SHORT:
+        out.writeLong(PrimitiveObjectInspectorUtils.getShort(o, oi), 2);
+        break;
+      case INT:
+        out.writeLong(PrimitiveObjectInspectorUtils.getInt(o, oi), 4);
+        break;
+      case LONG:
+        out.writeLong(PrimitiveObjectInspectorUtils.getLong(o, oi), 8);
+        break;
+      case FLOAT:
+        out.writeLong(Float.floatToIntBits(PrimitiveObjectInspectorUtils.getFloat(o, oi)), 4);
+        break;
+      case DOUBLE:
+        out.writeLong(Double.doubleToLongBits(PrimitiveObjectInspectorUtils.getDouble(o, oi)), 8);
+        break;
+      case STRING:
+        Text text = ((StringObjectInspector) oi).getPrimitiveWritableObject(o);
+        out.writeBytes(text.getBytes(), text.getLength());
+        break;
+      case BINARY:
+        BytesWritable bytes = ((BinaryObjectInspector) oi).getPrimitiveWritableObject(o);
+        out.writeBytes(bytes.getBytes(), bytes.getLength());
+        break;
+      case TIMESTAMP:
+        Timestamp timestamp = ((TimestampObjectInspector) oi).getPrimitiveJavaObject(o);
+        out.writeLong(timestamp.getTime(), 8);
+        out.writeLong(timestamp.getNanos(), 4);
+        break;
+      default:
+        throw new IllegalArgumentException(oi.getTypeName() + " can't be packed.");
+    }
+  }
+
+  private static Object decodeFromBytes(PrimitiveCategory category, byte[] bytes, int[] offset) {
+    switch (category) {
+      case BOOLEAN:
+        return new BooleanWritable(bytes[offset[0]++] != 0);
+      case BYTE:
+        return new ByteWritable(bytes[offset[0]++]);
+      case SHORT:
+        return new ShortWritable((short) readLong(bytes, offset, 2));
+      case INT:
+        return new IntWritable((int) readLong(bytes, offset, 4));
+      case LONG:
+        return new LongWritable(readLong(bytes, offset, 8));
+      case FLOAT:
+        return new FloatWritable(Float.intBitsToFloat((int) readLong(bytes, offset, 4)));
+      case DOUBLE:
+        return new DoubleWritable(Double.longBitsToDouble(readLong(bytes, offset, 8)));
+      case STRING:
+        Text text = new Text();
+        int textLength = readVInt(bytes, offset);
+        text.set(bytes, offset[0], textLength);
+        offset[0] += textLength;
+        return text;
+      case BINARY:
+        int bytesLength = readVInt(bytes, offset);
+        BytesWritable result = new BytesWritable(Arrays.copyOfRange(bytes, offset[0],
+            offset[0] + bytesLength));
+        offset[0] += bytesLength;
+        return result;
+      default:
+        Timestamp timestamp = new Timestamp(readLong(bytes, offset, 8));
+        timestamp.setNanos((int) readLong(bytes, offset, 4));
+        return new TimestampWritable(timestamp);
+    }
+  }
+
+  private static long readLong(byte[] bytes, int[] offset, int size) {
+    long result = 0L;
+    for (int i = 0; i < size; i++) {
+      result = (result << 8) | (bytes[offset[0]++] & 0xFF);
+    }
+    // sign-extend values narrower than a long
+    int shift = Long.SIZE - 8 * size;
+    return (result << shift) >> shift;
+  }
+
+  private static int readVInt(byte[] bytes, int[] offset) {
+    int result = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[offset[0]++];
+      result |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
+  /** Key made of a slice of packed bytes. */
+  static final class PackedKey implements Comparable<PackedKey> {
+    byte[] bytes = new byte[16];
+    int length;
+    int hash;
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + extra));
+      }
+    }
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      bytes[length++] = (byte) b;
+    }
+
+    void writeLong(long value, int size) {
+      ensureCapacity(size);
+      for (int i = size - 1; i >= 0; i--) {
+        bytes[length++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void writeBytes(byte[] b, int len) {
+      int l = len;
+      while ((l & ~0x7F) != 0) {
+        writeByte((l & 0x7F) | 0x80);
+        l >>>= 7;
+      }
+      writeByte(l);
+      ensureCapacity(len);
+      System.arraycopy(b, 0, bytes, length, len);
+      length += len;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PackedKey)) {
+        return false;
+      }
+      PackedKey other = (PackedKey) o;
+      return hash == other.hash && compareTo(other) == 0;
+    }
+
+    @Override
+    public int compareTo(PackedKey other) {
+      return WritableComparator.compareBytes(bytes, 0, length, other.bytes, 0, other.length);
+    }
+  }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * CounterMapEntries reads the counters output by counter_map, either a map<key,bigint> or the
+ * parallel arrays struct<keys:array,counts:array<bigint>> (counter_map_arrays, or counter_map
+ * of several columns), into two reusable parallel arrays. Entries whose count is not positive
+ * are skipped, as well as the null key if asked. A null key is kept otherwise, counter_map
+ * counting nulls, and comes before the other keys.
+ *
+ * The entries can then be partially ordered in place by quickselect, which puts the n first
+ * entries of an order in front in linear expected time instead of sorting all of them.
+ * @author Francois Rousseau
+ */
+final class CounterMapEntries {
+
+  private MapObjectInspector mapOI;
+  private StructObjectInspector structOI;
+  private StructField keysField;
+  private StructField countsField;
+  private ListObjectInspector keysOI;
+  private ListObjectInspector countsOI;
+  private ObjectInspector keyOI;
+  private PrimitiveObjectInspector countOI;
+  private boolean skipNullKeys;
+
+  Object[] keys = new Object[16];
+  long[] counts = new long[16];
+  int size;
+
+  // the pivots are drawn at random so that no input order is a worst case
+  private final Random random = new Random(0L);
+
+  private CounterMapEntries() {
+  }
+
+  /**
+   * Returns a reader of the counters inspected by oi, the argument at index, which skips the
+   * null key if skipNullKeys.
+   */
+  static CounterMapEntries get(ObjectInspector oi, int index, boolean skipNullKeys)
+      throws UDFArgumentTypeException {
+    CounterMapEntries result = new CounterMapEntries();
+    result.skipNullKeys = skipNullKeys;
+    ObjectInspector countOI = null;
+    if (oi.getCategory() == ObjectInspector.Category.MAP) {
+      result.mapOI = (MapObjectInspector) oi;
+      result.keyOI = result.mapOI.getMapKeyObjectInspector();
+      countOI = result.mapOI.getMapValueObjectInspector();
+    } else if (oi.getCategory() == ObjectInspector.Category.STRUCT) {
+      result.structOI = (StructObjectInspector) oi;
+      try {
+        result.keysField = result.structOI.getStructFieldRef("keys");
+        result.countsField = result.structOI.getStructFieldRef("counts");
+      } catch (RuntimeException e) {
+        throw new UDFArgumentTypeException(index,
+            "Only struct<keys:array,counts:array<bigint>> are accepted but "
+            + oi.getTypeName() + " is passed.");
+      }
+      if (result.keysField.getFieldObjectInspector().getCategory() == ObjectInspector.Category.LIST
+          && result.countsField.getFieldObjectInspector().getCategory()
+              == ObjectInspector.Category.LIST) {
+        result.keysOI = (ListObjectInspector) result.keysField.getFieldObjectInspector();
+        result.countsOI = (ListObjectInspector) result.countsField.getFieldObjectInspector();
+        result.keyOI = result.keysOI.getListElementObjectInspector();
+        countOI = result.countsOI.getListElementObjectInspector();
+      }
+    }
+    if (countOI == null || countOI.getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveCategory.BYTE, PrimitiveCategory.SHORT,
+            PrimitiveCategory.INT, PrimitiveCategory.LONG).contains(
+                ((PrimitiveObjectInspector) countOI).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(index,
+          "Only counter maps, map<key,bigint> or struct<keys:array,counts:array<bigint>>, are"
+          + " accepted but " + oi.getTypeName() + " is passed.");
+    }
+    result.countOI = (PrimitiveObjectInspector) countOI;
+    return result;
+  }
+
+  /** Returns the ObjectInspector of the keys read. */
+  ObjectInspector getKeyObjectInspector() {
+    return keyOI;
+  }
+
+  /** Reads the entries of the counters and returns their number. */
+  int read(Object counters) {
+    size = 0;
+    if (counters == null) {
+      return size;
+    }
+    if (mapOI != null) {
+      Map<?,?> map = mapOI.getMap(counters);
+      if (map != null) {
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+          add(entry.getKey(), entry.getValue());
+        }
+      }
+    } else {
+      Object keyList = structOI.getStructFieldData(counters, keysField);
+      Object countList = structOI.getStructFieldData(counters, countsField);
+      int length = Math.min(keysOI.getListLength(keyList), countsOI.getListLength(countList));
+      for (int i = 0; i < length; i++) {
+        add(keysOI.getListElement(keyList, i), countsOI.getListElement(countList, i));
+      }
+    }
+    return size;
+  }
+
+  private void add(Object key, Object count) {
+    if ((key == null && skipNullKeys) || count == null) {
+      return;
+    }
+    long value = PrimitiveObjectInspectorUtils.getLong(count, countOI);
+    if (value <= 0L) {
+      return;
+    }
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, 2 * size);
+      counts = Arrays.copyOf(counts, 2 * size);
+    }
+    keys[size] = key;
+    counts[size] = value;
+    size++;
+  }
+
+  /** Returns the sum of the counts read. */
+  long total() {
+    long total = 0L;
+    for (int i = 0; i < size; i++) {
+      total += counts[i];
+    }
+    return total;
+  }
+
+  /**
+   * Compares two entries by ascending key or, if byCount, by descending count and then by
+   * ascending key.
+   */
+  int compare(int i, int j, boolean byCount) {
+    if (byCount && counts[i] != counts[j]) {
+      return counts[i] > counts[j] ? -1 : 1;
+    }
+    return ObjectInspectorUtils.compare(keys[i], keyOI, keys[j], keyOI);
+  }
+
+  private void swap(int i, int j) {
+    Object key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    long count = counts[i];
+    counts[i] = counts[j];
+    counts[j] = count;
+  }
+
+  /**
+   * Partitions [from, to) around a random pivot: returns {lt, gt} such that the entries of
+   * [from, lt) are before the pivot, those of [lt, gt) equal to it and those of [gt, to) after.
+   */
+  private int[] partition(int from, int to, boolean byCount) {
+    swap(from, from + random.nextInt(to - from));
+    int lt = from;
+    int gt = to;
+    int i = from + 1;
+    while (i < gt) {
+      int comparison = compare(i, lt, byCount);
+      if (comparison < 0) {
+        swap(i++, lt++);
+      } else if (comparison > 0) {
+        swap(i, --gt);
+      } else {
+        i++;
+      }
+    }
+    return new int[] {lt, gt};
+  }
+
+  /** Moves the n first entries of the order in front, in no particular order. */
+  void selectFirst(int n, boolean byCount) {
+    int from = 0;
+    int to = size;
+    while (to - from > 1 && from < n && n < to) {
+      int[] bounds = partition(from, to, byCount);
+      if (n <= bounds[0]) {
+        to = bounds[0];
+      } else if (n >= bounds[1]) {
+        from = bounds[1];
+      } else {
+        return;
+      }
+    }
+  }
+
+  /** Sorts the entries of [from, to). */
+  void sort(int from, int to, boolean byCount) {
+    while (to - from > 1) {
+      int[] bounds = partition(from, to, byCount);
+      // recurse into the smaller side to bound the depth of the stack
+      if (bounds[0] - from < to - bounds[1]) {
+        sort(from, bounds[0], byCount);
+        from = bounds[1];
+      } else {
+        sort(bounds[1], to, byCount);
+        to = bounds[0];
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the entry at the given rank, from 1 to total(), when every key is
+   * repeated as many times as its count and the keys are sorted: the weighted percentile.
+   */
+  int selectByCount(long rank) {
+    int from = 0;
+    int to = size;
+    while (to - from > 1) {
+      int[] bounds = partition(from, to, false);
+      long before = 0L;
+      for (int i = from; i < bounds[0]; i++) {
+        before += counts[i];
+      }
+      long equal = 0L;
+      for (int i = bounds[0]; i < bounds[1]; i++) {
+        equal += counts[i];
+      }
+      if (rank <= before) {
+        to = bounds[0];
+      } else if (rank <= before + equal) {
+        return bounds[0];
+      } else {
+        rank -= before + equal;
+        from = bounds[1];
+      }
+    }
+    return from;
+  }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.ql.udf.generic.core.Aggregators;
+import org.apache.hadoop.hive.ql.udf.generic.core.Counter;
+import org.apache.hadoop.hive.serde2.ByteStream;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryObject;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * DeferredMerge merges the partial counter maps of a very large group on several threads. A
+ * partial is only queued, serialized as LazyBinary bytes, and the queued partials are merged when
+ * they take more than a memory budget and when the group is output: each thread counts a range
+ * of them in a map of its own and the maps are then combined as a tree.
+ *
+ * It is disabled by default and enabled with SET hive.udaf.merge.threads=N, and only used by the
+ * groups having more than MIN_PARTIALS partials. The budget of a group is set with
+ * SET hive.udaf.merge.budget (64MB by default). Both are read from the session configuration
+ * when the query is compiled and reach the tasks as properties of the evaluator.
+ * @author Francois Rousseau
+ */
+final class DeferredMerge {
+
+  static final String THREADS_PROPERTY = "hive.udaf.merge.threads";
+  static final String BUDGET_PROPERTY = "hive.udaf.merge.budget";
+  static final long DEFAULT_BUDGET = 64L << 20;
+  // the partials of a group are merged directly until there are that many
+  static final int MIN_PARTIALS = 64;
+  // a larger buffer is released when its group is done instead of being kept for the next one
+  private static final int RETAINED_CAPACITY = 1 << 20;
+
+  private static final Aggregators.CounterMap<Object> COUNTERS = Aggregators.counterMap();
+
+  private static ThreadPoolExecutor executor;
+
+  // the LazyBinary form of the partials
+  private final MapObjectInspector lazyMapOI;
+  private final int threads;
+  private final long budget;
+
+  private ByteStream.Output buffer = new ByteStream.Output();
+  // end of each partial in the buffer
+  private int[] ends = new int[16];
+  private int size = 0;
+  // the counters merged so far
+  private Map<Object,Counter> counters;
+
+  /**
+   * Creates a queue for the partials read through mapOI, merged on the given number of threads
+   * once they take more than budget bytes.
+   */
+  DeferredMerge(MapObjectInspector mapOI, int threads, long budget) {
+    lazyMapOI = (MapObjectInspector) LazyBinaryUtils.getLazyBinaryObjectInspectorFromTypeInfo(
+        TypeInfoUtils.getTypeInfoFromObjectInspector(mapOI));
+    this.threads = threads;
+    this.budget = budget;
+  }
+
+  /** Returns the number of merge threads set in the session, 0 if disabled. */
+  static int getConfiguredThreads() {
+    HiveConf conf = getSessionConf();
+    return conf == null ? 0 : conf.getInt(THREADS_PROPERTY, 0);
+  }
+
+  /** Returns the budget of a group set in the session. */
+  static long getConfiguredBudget() {
+    HiveConf conf = getSessionConf();
+    return conf == null ? DEFAULT_BUDGET : conf.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+  }
+
+  private static HiveConf getSessionConf() {
+    SessionState session = SessionState.get();
+    return session == null ? null : session.getConf();
+  }
+
+  /**
+   * Returns the task-wide pool of at least the given number of threads, whose threads do not
+   * prevent the JVM from exiting.
+   */
+  private static synchronized ExecutorService getExecutor(int threads) {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "udaf-merge-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else if (executor.getMaximumPoolSize() < threads) {
+      executor.setMaximumPoolSize(threads);
+      executor.setCorePoolSize(threads);
+    }
+    return executor;
+  }
+
+  /** Queues a partial counter map read through the ObjectInspector given. */
+  void add(Object partial, MapObjectInspector mapOI) {
+    LazyBinarySerDe.serialize(buffer, partial, mapOI, true, false);
+    if (size == ends.length) {
+      ends = Arrays.copyOf(ends, 2 * size);
+    }
+    ends[size++] = buffer.getCount();
+  }
+
+  /** Adds counters, with writable keys, to the ones merged so far. */
+  void addCounters(Map<Object,Counter> map) {
+    counters = counters == null ? map : COUNTERS.combine(counters, map);
+  }
+
+  /** Returns true if the queued partials take more memory than allowed. */
+  boolean isFull() {
+    return buffer.getCount() >= budget;
+  }
+
+  /** Merges the queued partials, in parallel, with the counters merged so far. */
+  void flush() throws HiveException {
+    if (size == 0) {
+      return;
+    }
+    int ranges = Math.min(threads, size);
+    ExecutorService executor = getExecutor(threads);
+    try {
+      List<Future<Map<Object,Counter>>> futures =
+          new ArrayList<Future<Map<Object,Counter>>>(ranges);
+      for (int i = 0; i < ranges; i++) {
+        final int from = (int) ((long) size * i / ranges);
+        final int to = (int) ((long) size * (i + 1) / ranges);
+        futures.add(executor.submit(new Callable<Map<Object,Counter>>() {
+          public Map<Object,Counter> call() {
+            return count(from, to);
+          }
+        }));
+      }
+      List<Map<Object,Counter>> maps = new ArrayList<Map<Object,Counter>>(ranges);
+      for (Future<Map<Object,Counter>> future: futures) {
+        maps.add(future.get());
+      }
+      addCounters(Aggregators.combine(COUNTERS, maps, executor));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveException(e);
+    } catch (ExecutionException e) {
+      throw new HiveException(e.getCause());
+    } finally {
+      buffer.reset();
+      size = 0;
+    }
+  }
+
+  /** Counts the keys of the queued partials from one index (inclusive) to another (exclusive). */
+  private Map<Object,Counter> count(int from, int to) {
+    PrimitiveObjectInspector keyOI =
+        (PrimitiveObjectInspector) lazyMapOI.getMapKeyObjectInspector();
+    PrimitiveObjectInspector countOI =
+        (PrimitiveObjectInspector) lazyMapOI.getMapValueObjectInspector();
+    LazyBinaryObject<?> map = LazyBinaryFactory.createLazyBinaryObject(lazyMapOI);
+    ByteArrayRef ref = new ByteArrayRef();
+    ref.setData(buffer.getData());
+    Map<Object,Counter> result = COUNTERS.newState();
+    for (int i = from; i < to; i++) {
+      int start = i == 0 ? 0 : ends[i - 1];
+      map.init(ref, start, ends[i] - start);
+      for (Map.Entry<?,?> entry: lazyMapOI.getMap(map.getObject()).entrySet()) {
+        if (entry.getValue() == null) {
+          continue;
+        }
+        long count = PrimitiveObjectInspectorUtils.getLong(entry.getValue(), countOI);
+        Object key = keyOI.getPrimitiveWritableObject(entry.getKey());
+        if (!COUNTERS.increment(result, key, count)) {
+          COUNTERS.put(result, ObjectInspectorUtils.copyToStandardObject(entry.getKey(), keyOI,
+              ObjectInspectorCopyOption.WRITABLE), count);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Returns the counters merged so far, with writable keys. */
+  Map<Object,Counter> getCounters() {
+    if (counters == null) {
+      counters = COUNTERS.newState();
+    }
+    return counters;
+  }
+
+  /** Forgets the queued partials and the counters, releasing a large buffer. */
+  void clear() {
+    if (buffer.getData().length > RETAINED_CAPACITY) {
+      buffer = new ByteStream.Output();
+    } else {
+      buffer.reset();
+    }
+    size = 0;
+    counters = null;
+  }
+
+}
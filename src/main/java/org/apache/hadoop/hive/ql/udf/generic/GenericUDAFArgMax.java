@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * GenericUDAFArgMax returns the value of the row with the greatest order key, without keeping
+ * the other rows: the state of a group is a single (key, value) pair, the value being copied only
+ * when a new greatest key is seen. Among rows with the same key the first one read is kept.
+ * @author Francois Rousseau
+ */
+@Description(name = "arg_max",
+             value = "_FUNC_(key, value) - Returns the value of the row with the greatest key")
+public class GenericUDAFArgMax extends AbstractGenericUDAFResolver {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    checkParameters(parameters);
+    return new GenericUDAFArgMaxEvaluator();
+  }
+
+  static void checkParameters(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly two arguments are expected.");
+    }
+    if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only primitive type keys are accepted but "
+          + parameters[0].getTypeName() + " is passed.");
+    }
+  }
+
+  /**
+   * GenericUDAFArgMaxEvaluator.
+   *
+   */
+  public static class GenericUDAFArgMaxEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    // For PARTIAL2 and FINAL: ObjectInspectors for the fields of partial aggregations
+    private ObjectInspector inputKeyOI;
+    private ObjectInspector inputValueOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField keyField;
+    private StructField valueField;
+
+    // ObjectInspectors for the key and the value kept
+    private ObjectInspector keyOI;
+    private ObjectInspector valueOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 2);
+        inputKeyOI = parameters[0];
+        inputValueOI = parameters[1];
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        keyField = internalMergeOI.getStructFieldRef("key");
+        valueField = internalMergeOI.getStructFieldRef("value");
+        inputKeyOI = keyField.getFieldObjectInspector();
+        inputValueOI = valueField.getFieldObjectInspector();
+      }
+      keyOI = ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputValueOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("key", "value"), Arrays.asList(keyOI, valueOI));
+      }
+      return valueOI;
+    }
+
+    /** class for storing the row with the extreme key. */
+    static class ArgMaxAgg implements AggregationBuffer {
+      Object key;
+      Object value;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      ArgMaxAgg myagg = (ArgMaxAgg) agg;
+      myagg.key = null;
+      myagg.value = null;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      ArgMaxAgg result = new ArgMaxAgg();
+      reset(result);
+      return result;
+    }
+
+    /** Returns true if a row compared to the kept one as given must replace it. */
+    protected boolean replaces(int comparison) {
+      return comparison > 0;
+    }
+
+    private void keepIfExtreme(Object key, Object value, ArgMaxAgg myagg) {
+      if (key == null) {
+        return;
+      }
+      if (myagg.key == null
+          || replaces(ObjectInspectorUtils.compare(key, inputKeyOI, myagg.key, keyOI))) {
+        myagg.key = ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI,
+            ObjectInspectorCopyOption.WRITABLE);
+        myagg.value = ObjectInspectorUtils.copyToStandardObject(value, inputValueOI,
+            ObjectInspectorCopyOption.WRITABLE);
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 2);
+      keepIfExtreme(parameters[0], parameters[1], (ArgMaxAgg) agg);
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      ArgMaxAgg myagg = (ArgMaxAgg) agg;
+      if (myagg.key == null) {
+        return null;
+      }
+      List<Object> result = new ArrayList<Object>(2);
+      result.add(myagg.key);
+      result.add(myagg.value);
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        keepIfExtreme(internalMergeOI.getStructFieldData(partial, keyField),
+            internalMergeOI.getStructFieldData(partial, valueField), (ArgMaxAgg) agg);
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      return ((ArgMaxAgg) agg).value;
+    }
+
+  }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * GenericUDAFArgMin returns the value of the row with the smallest order key, keeping a single
+ * (key, value) pair per group like arg_max.
+ * @author Francois Rousseau
+ */
+@Description(name = "arg_min",
+             value = "_FUNC_(key, value) - Returns the value of the row with the smallest key")
+public class GenericUDAFArgMin extends GenericUDAFArgMax {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    checkParameters(parameters);
+    return new GenericUDAFArgMinEvaluator();
+  }
+
+  public static class GenericUDAFArgMinEvaluator extends GenericUDAFArgMaxEvaluator {
+
+    @Override
+    protected boolean replaces(int comparison) {
+      return comparison < 0;
+    }
+
+  }
+}
@@ -0,0 +1,433 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Counter;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDAFCooccurrenceCounts counts the pairs of distinct items which occur together.
+ *
+ * cooccurrence_counts(item) keeps the distinct items of a group (e.g. a basket) and only makes
+ * their pairs when the group is output, each pair once. cooccurrence_counts(items, k) takes the
+ * items of a basket per row, counts the pairs of all the baskets of the group and only keeps the
+ * k most frequent ones. The counters are a Space-Saving summary of k * PRUNE_FACTOR pairs, so that
+ * the size of a partial aggregation is bounded: when it holds twice as many pairs, or more when
+ * it is output, only the most frequent ones are kept and the largest count dropped is carried as
+ * the error of the summary. A pair seen afterwards starts from that error, and merging two
+ * summaries adds the error of each to the pairs missing from it, so every count is an upper
+ * bound, greater than the true count by at most the error, which is itself at most the number of
+ * pairs counted divided by k * PRUNE_FACTOR. The counts are exact as long as no pair was dropped.
+ *
+ * The pairs are packed into single keys (see CompositeKeyPacker) and output as
+ * struct<keys:array<struct<col1,col2>>,counts:array<bigint>>, col1 being the smaller item.
+ * @author Francois Rousseau
+ */
+@Description(name = "cooccurrence_counts",
+             value = "_FUNC_(item) - Returns the pairs of distinct items of the group as"
+                 + " struct<keys:array<struct<col1,col2>>,counts:array<bigint>>",
+             extended = "_FUNC_(items, k) - Returns the k pairs of distinct items which occur the"
+                 + " most often in the same array, with their counts. The counts are approximate"
+                 + " once more than 4 * k pairs are seen: each one may be overestimated by at most"
+                 + " the largest count dropped from the bounded summary of 4 * k pairs")
+public class GenericUDAFCooccurrenceCounts extends AbstractGenericUDAFResolver {
+
+  // the pruned partial aggregations keep k * PRUNE_FACTOR pairs
+  static final int PRUNE_FACTOR = 4;
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 1 && parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "One or two arguments are expected.");
+    }
+    TypeInfo item = parameters[0];
+    if (parameters.length == 2) {
+      if (item.getCategory() != ObjectInspector.Category.LIST) {
+        throw new UDFArgumentTypeException(0,
+            "Only arrays of items are accepted with k but " + item.getTypeName() + " is passed.");
+      }
+      item = ((ListTypeInfo) item).getListElementTypeInfo();
+      if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || !Arrays.asList(PrimitiveObjectInspector.PrimitiveCategory.BYTE,
+              PrimitiveObjectInspector.PrimitiveCategory.SHORT,
+              PrimitiveObjectInspector.PrimitiveCategory.INT,
+              PrimitiveObjectInspector.PrimitiveCategory.LONG).contains(
+                  ((PrimitiveTypeInfo) parameters[1]).getPrimitiveCategory())) {
+        throw new UDFArgumentTypeException(1,
+            "Only an integer k is accepted but " + parameters[1].getTypeName() + " is passed.");
+      }
+    }
+    if (item.getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !CompositeKeyPacker.isSupported(((PrimitiveTypeInfo) item).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(0,
+          "Only boolean, numeric, string, timestamp or binary type items are accepted but "
+          + item.getTypeName() + " is passed.");
+    }
+    return new GenericUDAFCooccurrenceCountsEvaluator();
+  }
+
+  /**
+   * GenericUDAFCooccurrenceCountsEvaluator.
+   *
+   */
+  public static class GenericUDAFCooccurrenceCountsEvaluator
+      extends GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector itemOI;
+    private ListObjectInspector itemsOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField keysField;
+    private StructField countsField;
+    private StructField itemsField;
+    private StructField errorField;
+
+    // the items kept are writables
+    private PrimitiveObjectInspector writableItemOI;
+    private CompositeKeyPacker packer;
+    private final Object[] pair = new Object[2];
+    private final PrimitiveObjectInspector[] pairOIs = new PrimitiveObjectInspector[2];
+    private final List<Object> basket = new ArrayList<Object>();
+
+    // the number of pairs output, 0 if the pairs are made from the distinct items of the group;
+    // it is set on the map-side, from its constant argument, and the reduce-side gets it with the
+    // evaluator, which is serialized as a bean in the plan
+    private int k = 0;
+
+    public int getK() {
+      return k;
+    }
+
+    public void setK(int k) {
+      this.k = k;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      initMode(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        if (parameters.length == 2) {
+          itemsOI = (ListObjectInspector) parameters[0];
+          itemOI = (PrimitiveObjectInspector) itemsOI.getListElementObjectInspector();
+          if (!(parameters[1] instanceof ConstantObjectInspector)) {
+            throw new UDFArgumentTypeException(1, "k must be a constant.");
+          }
+          long size = PrimitiveObjectInspectorUtils.getLong(
+              ((ConstantObjectInspector) parameters[1]).getWritableConstantValue(),
+              (PrimitiveObjectInspector) parameters[1]);
+          if (size <= 0 || size > Integer.MAX_VALUE / PRUNE_FACTOR) {
+            throw new UDFArgumentTypeException(1, "k must be a positive int but " + size
+                + " is passed.");
+          }
+          k = (int) size;
+        } else {
+          itemOI = (PrimitiveObjectInspector) parameters[0];
+          k = 0;
+        }
+      } else {
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeOI.getStructFieldRef("keys");
+        countsField = internalMergeOI.getStructFieldRef("counts");
+        itemsField = internalMergeOI.getStructFieldRef("items");
+        errorField = internalMergeOI.getStructFieldRef("error");
+        itemOI = (PrimitiveObjectInspector) ((ListObjectInspector)
+            itemsField.getFieldObjectInspector()).getListElementObjectInspector();
+      }
+      writableItemOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+          itemOI.getPrimitiveCategory());
+      packer = new CompositeKeyPacker(new PrimitiveObjectInspector[] {itemOI, itemOI});
+
+      ObjectInspector longOI = PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+      List<String> names = new ArrayList<String>(Arrays.asList("keys", "counts"));
+      List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+          packer.getStandardStructObjectInspector()));
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(longOI));
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        names.addAll(Arrays.asList("items", "error"));
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(writableItemOI));
+        fieldOIs.add(longOI);
+      }
+      return ObjectInspectorFactory.getStandardStructObjectInspector(names, fieldOIs);
+    }
+
+    /** class for storing the pair counters and the distinct items. */
+    static class CooccurrenceCountsAgg extends CounterMapAgg {
+      Set<Object> items = new HashSet<Object>();
+      // the largest count dropped from the counters, which bounds the count of any pair without
+      // a counter and the overestimation of the others
+      long error;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      super.reset(agg);
+      CooccurrenceCountsAgg myagg = (CooccurrenceCountsAgg) agg;
+      myagg.items.clear();
+      myagg.error = 0;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      CooccurrenceCountsAgg result = new CooccurrenceCountsAgg();
+      reset(result);
+      return result;
+    }
+
+    /**
+     * Adds count to the counter of a pair, or gives it a counter of count + missing if it has
+     * none.
+     */
+    private void putPairIntoMap(Object first, PrimitiveObjectInspector firstOI, Object second,
+        PrimitiveObjectInspector secondOI, long count, long missing, CounterMapAgg myagg) {
+      pair[0] = first;
+      pair[1] = second;
+      pairOIs[0] = firstOI;
+      pairOIs[1] = secondOI;
+      Object pKey = packer.pack(pair, pairOIs);
+      if (!COUNTERS.increment(myagg.container, pKey, count)) {
+        COUNTERS.put(myagg.container, packer.copy(pKey), count + missing);
+      }
+    }
+
+    /**
+     * Sorts and deduplicates the items in place, and returns the number of distinct items, which
+     * are moved first.
+     */
+    private static int sortDistinct(List<Object> items, final PrimitiveObjectInspector oi) {
+      Collections.sort(items, new Comparator<Object>() {
+        public int compare(Object o1, Object o2) {
+          return ObjectInspectorUtils.compare(o1, oi, o2, oi);
+        }
+      });
+      int size = 0;
+      for (Object item: items) {
+        if (size == 0 || ObjectInspectorUtils.compare(items.get(size - 1), oi, item, oi) != 0) {
+          items.set(size++, item);
+        }
+      }
+      return size;
+    }
+
+    /** Counts each pair of the distinct items of a basket once. */
+    private void putPairsIntoMap(List<Object> items, PrimitiveObjectInspector oi,
+        CooccurrenceCountsAgg myagg) {
+      int size = sortDistinct(items, oi);
+      for (int i = 0; i < size; i++) {
+        for (int j = i + 1; j < size; j++) {
+          putPairIntoMap(items.get(i), oi, items.get(j), oi, 1L, myagg.error, myagg);
+        }
+      }
+    }
+
+    /** Returns the entries of the map sorted by decreasing count. */
+    private static List<Map.Entry<Object,Counter>> sortByCount(Map<Object,Counter> map) {
+      List<Map.Entry<Object,Counter>> entries =
+          new ArrayList<Map.Entry<Object,Counter>>(map.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<Object,Counter>>() {
+        public int compare(Map.Entry<Object,Counter> e1, Map.Entry<Object,Counter> e2) {
+          return e2.getValue().compareTo(e1.getValue());
+        }
+      });
+      return entries;
+    }
+
+    /**
+     * Only keeps the given number of most frequent pairs in the map, the largest count dropped
+     * becoming the error of the summary.
+     */
+    private void prune(CooccurrenceCountsAgg myagg, int size) {
+      if (myagg.container.size() <= size) {
+        return;
+      }
+      List<Map.Entry<Object,Counter>> entries = sortByCount(myagg.container);
+      Map<Object,Counter> pruned = COUNTERS.newState(size);
+      for (Map.Entry<Object,Counter> entry: entries.subList(0, size)) {
+        pruned.put(entry.getKey(), entry.getValue());
+      }
+      myagg.error = Math.max(myagg.error, entries.get(size).getValue().get());
+      myagg.container = pruned;
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      Object items = parameters[0];
+      if (items == null) {
+        return;
+      }
+      CooccurrenceCountsAgg myagg = (CooccurrenceCountsAgg) agg;
+      if (k == 0) {
+        myagg.items.add(ObjectInspectorUtils.copyToStandardObject(items, itemOI,
+            ObjectInspectorCopyOption.WRITABLE));
+        return;
+      }
+      int length = itemsOI.getListLength(items);
+      for (int i = 0; i < length; i++) {
+        Object item = itemsOI.getListElement(items, i);
+        if (item != null) {
+          basket.add(item);
+        }
+      }
+      putPairsIntoMap(basket, itemOI, myagg);
+      basket.clear();
+      if (myagg.container.size() > 2 * PRUNE_FACTOR * k) {
+        prune(myagg, PRUNE_FACTOR * k);
+      }
+    }
+
+    /**
+     * Always fails: the counters of pruned pairs are lost, so the pairs of a basket cannot be
+     * taken back out of them.
+     */
+    @Override
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      throw new HiveException("cooccurrence_counts does not support removing baskets.");
+    }
+
+    private List<Object> getPairs(List<Map.Entry<Object,Counter>> entries) {
+      List<Object> keys = new ArrayList<Object>(entries.size());
+      List<Object> counts = new ArrayList<Object>(entries.size());
+      for (Map.Entry<Object,Counter> entry: entries) {
+        keys.add(packer.unpack(entry.getKey()));
+        counts.add(new LongWritable(entry.getValue().get()));
+      }
+      return new ArrayList<Object>(Arrays.asList((Object) keys, counts));
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      CooccurrenceCountsAgg myagg = (CooccurrenceCountsAgg) agg;
+      if (k > 0) {
+        prune(myagg, PRUNE_FACTOR * k);
+      }
+      groupSizes.add(myagg.container.size());
+      List<Object> result =
+          getPairs(new ArrayList<Map.Entry<Object,Counter>>(myagg.container.entrySet()));
+      result.add(new ArrayList<Object>(myagg.items));
+      result.add(new LongWritable(myagg.error));
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      CooccurrenceCountsAgg myagg = (CooccurrenceCountsAgg) agg;
+      long error = PrimitiveObjectInspectorUtils.getLong(
+          internalMergeOI.getStructFieldData(partial, errorField),
+          (PrimitiveObjectInspector) errorField.getFieldObjectInspector());
+      if (error > 0) {
+        // the pairs missing from the partial aggregation may have occurred error times in it
+        for (Counter counter: myagg.container.values()) {
+          counter.add(error);
+        }
+      }
+      ListObjectInspector keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+      ListObjectInspector countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+      StructObjectInspector keyOI = (StructObjectInspector) keysOI.getListElementObjectInspector();
+      List<? extends StructField> keyFields = keyOI.getAllStructFieldRefs();
+      PrimitiveObjectInspector firstOI =
+          (PrimitiveObjectInspector) keyFields.get(0).getFieldObjectInspector();
+      PrimitiveObjectInspector secondOI =
+          (PrimitiveObjectInspector) keyFields.get(1).getFieldObjectInspector();
+      PrimitiveObjectInspector countOI =
+          (PrimitiveObjectInspector) countsOI.getListElementObjectInspector();
+      Object keys = internalMergeOI.getStructFieldData(partial, keysField);
+      Object counts = internalMergeOI.getStructFieldData(partial, countsField);
+      int length = keysOI.getListLength(keys);
+      for (int i = 0; i < length; i++) {
+        Object key = keysOI.getListElement(keys, i);
+        putPairIntoMap(keyOI.getStructFieldData(key, keyFields.get(0)), firstOI,
+            keyOI.getStructFieldData(key, keyFields.get(1)), secondOI,
+            PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), countOI)
+                - error, myagg.error + error, myagg);
+      }
+      myagg.error += error;
+      if (k > 0 && myagg.container.size() > 2 * PRUNE_FACTOR * k) {
+        prune(myagg, PRUNE_FACTOR * k);
+      }
+
+      ListObjectInspector itemsOI = (ListObjectInspector) itemsField.getFieldObjectInspector();
+      Object items = internalMergeOI.getStructFieldData(partial, itemsField);
+      length = itemsOI.getListLength(items);
+      for (int i = 0; i < length; i++) {
+        myagg.items.add(ObjectInspectorUtils.copyToStandardObject(
+            itemsOI.getListElement(items, i), itemOI, ObjectInspectorCopyOption.WRITABLE));
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      CooccurrenceCountsAgg myagg = (CooccurrenceCountsAgg) agg;
+      if (k == 0) {
+        // each pair of the distinct items of the group occurs once, so it is output as is
+        basket.addAll(myagg.items);
+        int size = sortDistinct(basket, writableItemOI);
+        List<Object> keys = new ArrayList<Object>();
+        List<Object> counts = new ArrayList<Object>();
+        LongWritable one = new LongWritable(1L);
+        for (int i = 0; i < size; i++) {
+          for (int j = i + 1; j < size; j++) {
+            keys.add(Arrays.asList(basket.get(i), basket.get(j)));
+            counts.add(one);
+          }
+        }
+        basket.clear();
+        return Arrays.asList((Object) keys, counts);
+      }
+      groupSizes.add(myagg.container.size());
+      List<Map.Entry<Object,Counter>> entries = sortByCount(myagg.container);
+      return getPairs(entries.size() > k ? entries.subList(0, k) : entries);
+    }
+
+  }
+}
@@ -17,8 +17,14 @@
  */
 package org.apache.hadoop.hive.ql.udf.generic;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,14 +32,31 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Aggregators;
+import org.apache.hadoop.hive.ql.udf.generic.core.CompactMap;
+import org.apache.hadoop.hive.ql.udf.generic.core.Counter;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.StringUtils;
 
 /**
@@ -41,26 +64,66 @@ import org.apache.hadoop.util.StringUtils;
  * @author Francois Rousseau
  */
 @Description(name = "counter_map",
-             value = "_FUNC_(x) - Returns a counter map from all the values inside x")
+             value = "_FUNC_(x) - Returns a counter map from all the values inside x, or from all"
+                 + " their elements if x is an array",
+             extended = "_FUNC_(x1, x2, ...) - Returns the counters of all the tuples inside"
+                 + " (x1, x2, ...) as"
+                 + " struct<keys:array<struct<col1,col2,...>>,counts:array<bigint>>")
 public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
 
   static final Log LOG = LogFactory.getLog(GenericUDAFCounterMap.class.getName());
 
   @Override
   public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
-    if (parameters.length != 1) {
-      throw new UDFArgumentTypeException(parameters.length - 1,
-          "Exactly one argument is expected.");
+    if (parameters.length == 0) {
+      throw new UDFArgumentTypeException(0,
+          "At least one argument is expected.");
+    }
+    if (parameters.length == 1 && parameters[0].getCategory() == ObjectInspector.Category.LIST) {
+      // the elements of an array are counted as if it had been exploded into rows
+      parameters = new TypeInfo[] {((ListTypeInfo) parameters[0]).getListElementTypeInfo()};
     }
 
-    final TypeInfo parameter = parameters[0];
-    if (parameter.getCategory() != ObjectInspector.Category.PRIMITIVE) {
-      throw new UDFArgumentTypeException(0,
-          "Only primitive type arguments are accepted but "
-          + parameter.getTypeName() + " is passed.");
+    for (int i = 0; i < parameters.length; i++) {
+      final TypeInfo parameter = parameters[i];
+      if (parameter.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        throw new UDFArgumentTypeException(i,
+            "Only primitive type arguments are accepted but "
+            + parameter.getTypeName() + " is passed.");
+      }
+      if (parameters.length > 1 && !CompositeKeyPacker.isSupported(
+          ((PrimitiveTypeInfo) parameter).getPrimitiveCategory())) {
+        throw new UDFArgumentTypeException(i,
+            "Only boolean, numeric, string, timestamp or binary type arguments are accepted but "
+            + parameter.getTypeName() + " is passed.");
+      }
     }
 
-    return new GenericUDAFCounterMapEvaluator();
+    if (parameters.length > 1) {
+      return new GenericUDAFCompositeCounterMapEvaluator();
+    }
+    switch (((PrimitiveTypeInfo) parameters[0]).getPrimitiveCategory()) {
+    case INT:
+      return configureMerge(new GenericUDAFIntCounterMapEvaluator());
+    case LONG:
+      return configureMerge(new GenericUDAFLongCounterMapEvaluator());
+    case DOUBLE:
+      return configureMerge(new GenericUDAFDoubleCounterMapEvaluator());
+    case STRING:
+      return configureMerge(new GenericUDAFStringCounterMapEvaluator());
+    default:
+      return configureMerge(new GenericUDAFCounterMapEvaluator());
+    }
+  }
+
+  /**
+   * Sets up the evaluator to merge the partial aggregations of large groups as configured in the
+   * session (see DeferredMerge).
+   */
+  static GenericUDAFCounterMapEvaluator configureMerge(GenericUDAFCounterMapEvaluator evaluator) {
+    evaluator.setMergeThreads(DeferredMerge.getConfiguredThreads());
+    evaluator.setMergeBudget(DeferredMerge.getConfiguredBudget());
+    return evaluator;
   }
 
   /**
@@ -69,43 +132,129 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
    */
   public static class GenericUDAFCounterMapEvaluator extends GenericUDAFEvaluator {
     // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
-    private PrimitiveObjectInspector inputOI;
+    protected PrimitiveObjectInspector inputOI;
 
     // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations 
-    private StandardMapObjectInspector internalMergeOI;
+    protected StandardMapObjectInspector internalMergeOI;
+
+    /** Records the mode, for subclasses aggregating other shapes of data. */
+    protected void initMode(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+    }
 
     @Override
     public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
       assert (parameters.length == 1);
-      super.init(m, parameters);
-      if (m == Mode.PARTIAL1) {
-        inputOI = (PrimitiveObjectInspector) parameters[0];
-        return ObjectInspectorFactory.getStandardMapObjectInspector(
-            (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputOI), 
-            (ObjectInspector) PrimitiveObjectInspectorFactory.writableLongObjectInspector);
-      } else {
-        if (!(parameters[0] instanceof StandardMapObjectInspector)) {
-          inputOI = (PrimitiveObjectInspector) parameters[0];
-          return ObjectInspectorFactory.getStandardMapObjectInspector(
-              (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputOI), 
-              (ObjectInspector) PrimitiveObjectInspectorFactory.writableLongObjectInspector);
-        } else {
-            internalMergeOI = (StandardMapObjectInspector) parameters[0];
-            inputOI = (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector();
-            return (StandardMapObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(
-                internalMergeOI);                 
-        }
+      switch (m) {
+      case PARTIAL1:
+      case COMPLETE:
+        // the counters are built the same way whether they are output once (COMPLETE) or
+        // handed over to a reduce-side aggregation (PARTIAL1)
+        return initKeys(m, parameters, getInputKeyObjectInspector(parameters[0]));
+      default:
+        internalMergeOI = (StandardMapObjectInspector) parameters[0];
+        ObjectInspector result = initKeys(m, parameters,
+            (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector());
+        // the keys counted in parallel are writables
+        deferMerge = m == Mode.FINAL && mergeThreads > 1 && canDeferMerge()
+            && inputOI.preferWritable();
+        return result;
       }
     }
 
+    // For FINAL: whether the partial aggregations of large groups are merged in parallel
+    private boolean deferMerge = false;
+
+    // For FINAL: the threads merging the partial aggregations of a large group, and the bytes of
+    // partial aggregations queued before they are merged. These are bean properties so that they
+    // are serialized with the plan, from the session which compiled the query to the tasks.
+    private int mergeThreads = 0;
+    private long mergeBudget = DeferredMerge.DEFAULT_BUDGET;
+
+    public int getMergeThreads() {
+      return mergeThreads;
+    }
+
+    public void setMergeThreads(int mergeThreads) {
+      this.mergeThreads = mergeThreads;
+    }
+
+    public long getMergeBudget() {
+      return mergeBudget;
+    }
+
+    public void setMergeBudget(long mergeBudget) {
+      this.mergeBudget = mergeBudget;
+    }
+
+    /**
+     * Returns true if the partial aggregations can be merged in parallel, the result being output
+     * instead of the container of the aggregation buffer.
+     */
+    protected boolean canDeferMerge() {
+      return true;
+    }
+
+    // For PARTIAL1 and COMPLETE: ObjectInspector of the arrays whose elements are counted
+    protected ListObjectInspector inputListOI;
+
+    /**
+     * Returns the ObjectInspector of the keys of the original data, which are the elements of the
+     * arrays if the column is an array.
+     */
+    protected PrimitiveObjectInspector getInputKeyObjectInspector(ObjectInspector oi) {
+      if (oi.getCategory() == ObjectInspector.Category.LIST) {
+        inputListOI = (ListObjectInspector) oi;
+        return (PrimitiveObjectInspector) inputListOI.getListElementObjectInspector();
+      }
+      return (PrimitiveObjectInspector) oi;
+    }
+
+    /**
+     * Initializes the evaluator to count the keys read through keyOI and returns the
+     * ObjectInspector of the counters.
+     */
+    protected ObjectInspector initKeys(Mode m, ObjectInspector[] parameters,
+        PrimitiveObjectInspector keyOI) throws HiveException {
+      initMode(m, parameters);
+      inputOI = keyOI;
+      return ObjectInspectorFactory.getStandardMapObjectInspector(
+          getStandardKeyObjectInspector(),
+          (ObjectInspector) PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    }
+
+    /** Returns the ObjectInspector of the keys stored in the map. */
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return ObjectInspectorUtils.getStandardObjectInspector(inputOI);
+    }
+
+    // Final sizes of the recent groups, used to presize the buffers of the next ones
+    protected final GroupSizeEstimator groupSizes =
+        new GroupSizeEstimator(CompactMap.INLINE_CAPACITY);
+
+    // the aggregation itself, which the evaluators adapt to Hive
+    protected static final Aggregators.CounterMap<Object> COUNTERS = Aggregators.counterMap();
+
     /** class for storing the current string builder. */
     static class CounterMapAgg implements AggregationBuffer {
-      Map<Object,LongWritable> container;
+      Map<Object,Counter> container;
+      // the partial aggregations merged on several threads, if the merge is deferred
+      DeferredMerge queue;
+      int partials;
     }
 
     @Override
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((CounterMapAgg) agg).container = new HashMap<Object,LongWritable>();
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      if (myagg.container != null && !groupSizes.isOversized(myagg.container.size())) {
+        myagg.container.clear();
+      } else {
+        myagg.container = COUNTERS.newState(groupSizes.estimate());
+      }
+      myagg.partials = 0;
+      if (myagg.queue != null) {
+        myagg.queue.clear();
+      }
     }
 
     @Override
@@ -115,21 +264,40 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
       return result;
     }
 
-    protected void putIntoMap(Object key, LongWritable value, CounterMapAgg myagg) {
-      Object pKeyCopy = ObjectInspectorUtils.copyToStandardObject(key, inputOI);
-      if(myagg.container.containsKey(pKeyCopy)) {
-        myagg.container.get(pKeyCopy).set(value.get() + myagg.container.get(pKeyCopy).get());
-      } else {
-        myagg.container.put(pKeyCopy, new LongWritable(value.get()));          
+    /**
+     * Returns the form in which a key is looked up in the map, possibly a reused probe. The keys
+     * are looked up through their writable (or java) form so that no copy is made unless the key
+     * has never been seen before.
+     */
+    protected Object getLookupKey(Object key) {
+      return inputOI.preferWritable()
+          ? inputOI.getPrimitiveWritableObject(key) : inputOI.getPrimitiveJavaObject(key);
+    }
+
+    protected void putIntoMap(Object key, long count, CounterMapAgg myagg) {
+      Object pKey = getLookupKey(key);
+      if (!COUNTERS.increment(myagg.container, pKey, count)) {
+        Object pKeyCopy = ObjectInspectorUtils.copyToStandardObject(key, inputOI);
+        COUNTERS.put(myagg.container, pKeyCopy, count);
       }
     }
 
     protected void putOneIntoMap(Object key, CounterMapAgg myagg) {
-      Object pKeyCopy = ObjectInspectorUtils.copyToStandardObject(key, inputOI);
-      if(myagg.container.containsKey(pKeyCopy)) {
-        myagg.container.get(pKeyCopy).set(1L + myagg.container.get(pKeyCopy).get());
-      } else {
-        myagg.container.put(pKeyCopy, new LongWritable(1L));
+      putIntoMap(key, 1L, myagg);
+    }
+
+    /**
+     * Adds all the counters of a map (lazy or not) to the aggregation buffer. The entries are read
+     * through the given ObjectInspector and are never converted to standard objects as a whole.
+     */
+    protected void putAllIntoMap(Object map, MapObjectInspector mapOI, CounterMapAgg myagg) {
+      PrimitiveObjectInspector countOI =
+          (PrimitiveObjectInspector) mapOI.getMapValueObjectInspector();
+      for (Map.Entry<?,?> entry: mapOI.getMap(map).entrySet()) {
+        if (entry.getValue() != null) {
+          putIntoMap(entry.getKey(),
+              PrimitiveObjectInspectorUtils.getLong(entry.getValue(), countOI), myagg);
+        }
       }
     }
 
@@ -141,7 +309,15 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
       assert (parameters.length == 1);
       try {
         CounterMapAgg myagg = (CounterMapAgg) agg;
-        putOneIntoMap(parameters[0], myagg);
+        if (inputListOI == null) {
+          putOneIntoMap(parameters[0], myagg);
+        } else if (parameters[0] != null) {
+          // the elements are read in place, without any intermediate row
+          int length = inputListOI.getListLength(parameters[0]);
+          for (int i = 0; i < length; i++) {
+            putOneIntoMap(inputListOI.getListElement(parameters[0], i), myagg);
+          }
+        }
       } catch (NumberFormatException e) {
         if (!warned) {
           warned = true;
@@ -151,14 +327,34 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
       }
     }
 
+    /**
+     * Removes a row previously passed to iterate: its keys are decremented and evicted when their
+     * counters reach zero. A sliding window (e.g. a ROWS frame) then moves by iterating over the
+     * row which enters it and removing the one which leaves it instead of being rebuilt.
+     */
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 1);
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      if (inputListOI == null) {
+        COUNTERS.decrement(myagg.container, getLookupKey(parameters[0]), 1L);
+      } else if (parameters[0] != null) {
+        int length = inputListOI.getListLength(parameters[0]);
+        for (int i = 0; i < length; i++) {
+          COUNTERS.decrement(myagg.container,
+              getLookupKey(inputListOI.getListElement(parameters[0], i)), 1L);
+        }
+      }
+    }
+
     // Map-side
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
       CounterMapAgg myagg = (CounterMapAgg) agg;
+      groupSizes.add(myagg.container.size());
       if (myagg.container.size() < 0) {
         return null;
       }
-      return myagg.container;
+      return new WritableCounters(myagg.container);
     }
 
     // Reduce-side
@@ -166,12 +362,24 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
     public void merge(AggregationBuffer agg, Object partial) throws HiveException {
       if (partial != null) {
         CounterMapAgg myagg = (CounterMapAgg) agg;
-        @SuppressWarnings("unchecked")
-        Map<Object,LongWritable> partialResult =
-            (Map<Object,LongWritable>) internalMergeOI.getMap(partial);
-        for (Map.Entry<Object,LongWritable> entry: partialResult.entrySet()) {
-          putIntoMap(entry.getKey(), entry.getValue(), myagg);
+        if (deferMerge) {
+          if (myagg.queue == null) {
+            myagg.queue = new DeferredMerge(internalMergeOI, mergeThreads, mergeBudget);
+          }
+          if (myagg.partials++ == DeferredMerge.MIN_PARTIALS) {
+            // the group is large: the counters merged so far are handed over to the queue
+            myagg.queue.addCounters(myagg.container);
+            myagg.container = COUNTERS.newState(groupSizes.estimate());
+          }
+          if (myagg.partials > DeferredMerge.MIN_PARTIALS) {
+            myagg.queue.add(partial, internalMergeOI);
+            if (myagg.queue.isFull()) {
+              myagg.queue.flush();
+            }
+            return;
+          }
         }
+        putAllIntoMap(partial, internalMergeOI, myagg);
       }
     }
 
@@ -179,12 +387,375 @@ public class GenericUDAFCounterMap extends AbstractGenericUDAFResolver {
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       CounterMapAgg myagg = (CounterMapAgg) agg;
+      if (myagg.partials > DeferredMerge.MIN_PARTIALS) {
+        myagg.queue.flush();
+        return new WritableCounters(myagg.queue.getCounters());
+      }
+      groupSizes.add(myagg.container.size());
       if (myagg.container.size() < 0) {
         return null;
       }
-      return myagg.container;
+      return new WritableCounters(myagg.container);
     }
 
   }
 
+  /**
+   * GenericUDAFCompositeCounterMapEvaluator counts tuples of primitive values. Each tuple is packed
+   * into a single compact key (see CompositeKeyPacker) instead of being concatenated into a string
+   * and is only unpacked into a struct when the counters are output. Since Hive only supports
+   * primitive map keys, the counters are output as two parallel arrays of tuples and counts.
+   */
+  public static class GenericUDAFCompositeCounterMapEvaluator
+      extends GenericUDAFCounterMapEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector[] inputOIs;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField keysField;
+    private StructField countsField;
+    private ListObjectInspector keysOI;
+    private ListObjectInspector countsOI;
+    private StructObjectInspector keyOI;
+    private List<? extends StructField> keyFields;
+
+    private CompositeKeyPacker packer;
+    private Object[] tuple;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      initMode(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOIs = new PrimitiveObjectInspector[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+          inputOIs[i] = (PrimitiveObjectInspector) parameters[i];
+        }
+      } else {
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeOI.getStructFieldRef("keys");
+        countsField = internalMergeOI.getStructFieldRef("counts");
+        keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+        countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+        keyOI = (StructObjectInspector) keysOI.getListElementObjectInspector();
+        keyFields = keyOI.getAllStructFieldRefs();
+        inputOIs = new PrimitiveObjectInspector[keyFields.size()];
+        for (int i = 0; i < inputOIs.length; i++) {
+          inputOIs[i] = (PrimitiveObjectInspector) keyFields.get(i).getFieldObjectInspector();
+        }
+      }
+      packer = new CompositeKeyPacker(inputOIs);
+      tuple = new Object[inputOIs.length];
+      List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+          packer.getStandardStructObjectInspector()));
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+          PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+      return ObjectInspectorFactory.getStandardStructObjectInspector(
+          Arrays.asList("keys", "counts"), fieldOIs);
+    }
+
+    protected void putTupleIntoMap(Object[] values, long count, CounterMapAgg myagg) {
+      Object pKey = packer.pack(values, inputOIs);
+      if (!COUNTERS.increment(myagg.container, pKey, count)) {
+        COUNTERS.put(myagg.container, packer.copy(pKey), count);
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == inputOIs.length);
+      try {
+        CounterMapAgg myagg = (CounterMapAgg) agg;
+        putTupleIntoMap(parameters, 1L, myagg);
+      } catch (NumberFormatException e) {
+        if (!warned) {
+          warned = true;
+          LOG.warn(getClass().getSimpleName() + " " + StringUtils.stringifyException(e));
+          LOG.warn(getClass().getSimpleName() + " ignoring similar exceptions.");
+        }
+      }
+    }
+
+    @Override
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == inputOIs.length);
+      COUNTERS.decrement(((CounterMapAgg) agg).container, packer.pack(parameters, inputOIs), 1L);
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      return terminate(agg);
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        CounterMapAgg myagg = (CounterMapAgg) agg;
+        Object keys = internalMergeOI.getStructFieldData(partial, keysField);
+        Object counts = internalMergeOI.getStructFieldData(partial, countsField);
+        PrimitiveObjectInspector countOI =
+            (PrimitiveObjectInspector) countsOI.getListElementObjectInspector();
+        int length = keysOI.getListLength(keys);
+        for (int i = 0; i < length; i++) {
+          Object key = keysOI.getListElement(keys, i);
+          for (int j = 0; j < tuple.length; j++) {
+            tuple[j] = keyOI.getStructFieldData(key, keyFields.get(j));
+          }
+          putTupleIntoMap(tuple,
+              PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), countOI),
+              myagg);
+        }
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      List<Object> keys = new ArrayList<Object>(myagg.container.size());
+      List<Object> counts = new ArrayList<Object>(myagg.container.size());
+      for (Map.Entry<Object,Counter> entry: myagg.container.entrySet()) {
+        keys.add(packer.unpack(entry.getKey()));
+        counts.add(new LongWritable(entry.getValue().get()));
+      }
+      return Arrays.asList((Object) keys, counts);
+    }
+
+  }
+
+  /**
+   * GenericUDAFIntCounterMapEvaluator counts int values, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFIntCounterMapEvaluator extends GenericUDAFCounterMapEvaluator {
+    private IntObjectInspector keyOI;
+    private final IntWritable probe = new IntWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (IntObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+    }
+
+    @Override
+    protected Object getLookupKey(Object key) {
+      if (key == null) {
+        return super.getLookupKey(key);
+      }
+      probe.set(keyOI.get(key));
+      return probe;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, long count, CounterMapAgg myagg) {
+      if (key == null) {
+        super.putIntoMap(key, count, myagg);
+        return;
+      }
+      if (!COUNTERS.increment(myagg.container, getLookupKey(key), count)) {
+        COUNTERS.put(myagg.container, new IntWritable(probe.get()), count);
+      }
+    }
+
+  }
+
+  /**
+   * GenericUDAFLongCounterMapEvaluator counts long values, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFLongCounterMapEvaluator extends GenericUDAFCounterMapEvaluator {
+    private LongObjectInspector keyOI;
+    private final LongWritable probe = new LongWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (LongObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+    }
+
+    @Override
+    protected Object getLookupKey(Object key) {
+      if (key == null) {
+        return super.getLookupKey(key);
+      }
+      probe.set(keyOI.get(key));
+      return probe;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, long count, CounterMapAgg myagg) {
+      if (key == null) {
+        super.putIntoMap(key, count, myagg);
+        return;
+      }
+      if (!COUNTERS.increment(myagg.container, getLookupKey(key), count)) {
+        COUNTERS.put(myagg.container, new LongWritable(probe.get()), count);
+      }
+    }
+
+  }
+
+  /**
+   * GenericUDAFDoubleCounterMapEvaluator counts double values, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFDoubleCounterMapEvaluator extends GenericUDAFCounterMapEvaluator {
+    private DoubleObjectInspector keyOI;
+    private final DoubleWritable probe = new DoubleWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (DoubleObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+    }
+
+    @Override
+    protected Object getLookupKey(Object key) {
+      if (key == null) {
+        return super.getLookupKey(key);
+      }
+      probe.set(keyOI.get(key));
+      return probe;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, long count, CounterMapAgg myagg) {
+      if (key == null) {
+        super.putIntoMap(key, count, myagg);
+        return;
+      }
+      if (!COUNTERS.increment(myagg.container, getLookupKey(key), count)) {
+        COUNTERS.put(myagg.container, new DoubleWritable(probe.get()), count);
+      }
+    }
+
+  }
+
+  /**
+   * GenericUDAFStringCounterMapEvaluator counts string values, looked up through their Text form
+   * without any copy unless they have never been seen before.
+   */
+  public static class GenericUDAFStringCounterMapEvaluator extends GenericUDAFCounterMapEvaluator {
+    private StringObjectInspector keyOI;
+    private final Text probe = new Text();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (StringObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    @Override
+    protected Object getLookupKey(Object key) {
+      if (key == null) {
+        return super.getLookupKey(key);
+      }
+      if (keyOI.preferWritable()) {
+        return keyOI.getPrimitiveWritableObject(key);
+      }
+      probe.set(keyOI.getPrimitiveJavaObject(key));
+      return probe;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, long count, CounterMapAgg myagg) {
+      if (key == null) {
+        super.putIntoMap(key, count, myagg);
+        return;
+      }
+      Text text = (Text) getLookupKey(key);
+      if (!COUNTERS.increment(myagg.container, text, count)) {
+        COUNTERS.put(myagg.container, new Text(text), count);
+      }
+    }
+
+  }
+
+  /**
+   * WritableCounters shows the counters of an aggregation as the map of LongWritable that Hive
+   * outputs, converting each counter when it is read instead of copying the whole map.
+   */
+  static final class WritableCounters extends AbstractMap<Object,LongWritable> {
+    private final Map<Object,Counter> counters;
+
+    WritableCounters(Map<Object,Counter> counters) {
+      this.counters = counters;
+    }
+
+    @Override
+    public LongWritable get(Object key) {
+      Counter counter = counters.get(key);
+      return counter == null ? null : new LongWritable(counter.get());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return counters.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return counters.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Object,LongWritable>> entrySet() {
+      return new AbstractSet<Map.Entry<Object,LongWritable>>() {
+        @Override
+        public Iterator<Map.Entry<Object,LongWritable>> iterator() {
+          final Iterator<Map.Entry<Object,Counter>> it = counters.entrySet().iterator();
+          return new Iterator<Map.Entry<Object,LongWritable>>() {
+            public boolean hasNext() {
+              return it.hasNext();
+            }
+
+            public Map.Entry<Object,LongWritable> next() {
+              Map.Entry<Object,Counter> entry = it.next();
+              return new AbstractMap.SimpleImmutableEntry<Object,LongWritable>(
+                  entry.getKey(), new LongWritable(entry.getValue().get()));
+            }
+
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return counters.size();
+        }
+      };
+    }
+  }
+
 }
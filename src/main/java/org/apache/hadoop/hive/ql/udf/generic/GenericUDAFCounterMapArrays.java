@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * GenericUDAFCounterMapArrays.
+ * @author Francois Rousseau
+ */
+@Description(name = "counter_map_arrays",
+             value = "_FUNC_(x [, sort]) - Returns the counters of all the values inside x as"
+                 + " struct<keys:array,counts:array<bigint>>, sorted by 'key' or by descending"
+                 + " 'count' if asked")
+public class GenericUDAFCounterMapArrays extends GenericUDAFCounterMap {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 1 && parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "One or two arguments are expected.");
+    }
+    if (parameters.length == 2) {
+      checkSortParameter(parameters[1], 1);
+    }
+    super.getEvaluator(new TypeInfo[] {parameters[0]});
+    return new GenericUDAFCounterMapArraysEvaluator();
+  }
+
+  static void checkSortParameter(TypeInfo parameter, int index) throws UDFArgumentTypeException {
+    if (parameter.getCategory() != ObjectInspector.Category.PRIMITIVE
+        || ((PrimitiveTypeInfo) parameter).getPrimitiveCategory()
+            != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+      throw new UDFArgumentTypeException(index,
+          "Only a string sort order is accepted but " + parameter.getTypeName() + " is passed.");
+    }
+  }
+
+  /**
+   * GenericUDAFCounterMapArraysEvaluator.
+   *
+   */
+  public static class GenericUDAFCounterMapArraysEvaluator extends GenericUDAFCounterMapEvaluator {
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeArraysOI;
+    private StructField keysField;
+    private StructField countsField;
+    private ListObjectInspector keysOI;
+    private ListObjectInspector countsOI;
+
+    // the sort order is set on the map-side, from its constant argument, and the reduce-side
+    // gets it with the evaluator, which is serialized as a bean in the plan
+    private String sort;
+
+    public String getSort() {
+      return sort;
+    }
+
+    public void setSort(String sort) {
+      this.sort = sort;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        initKeys(m, parameters, getInputKeyObjectInspector(parameters[0]));
+        sort = parameters.length > 1 ? ParallelArrays.getSort(parameters[1], 1,
+            ParallelArrays.SORT_BY_KEY, ParallelArrays.SORT_BY_COUNT) : null;
+      } else {
+        internalMergeArraysOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeArraysOI.getStructFieldRef("keys");
+        countsField = internalMergeArraysOI.getStructFieldRef("counts");
+        keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+        countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+        // the keys of the partial aggregations are counted like original data
+        initKeys(m, parameters, (PrimitiveObjectInspector) keysOI.getListElementObjectInspector());
+      }
+      return ParallelArrays.getObjectInspector(
+          "keys", ObjectInspectorUtils.getStandardObjectInspector(inputOI),
+          "counts", PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      return ParallelArrays.fromMap(new WritableCounters(myagg.container), null);
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        CounterMapAgg myagg = (CounterMapAgg) agg;
+        Object keys = internalMergeArraysOI.getStructFieldData(partial, keysField);
+        Object counts = internalMergeArraysOI.getStructFieldData(partial, countsField);
+        PrimitiveObjectInspector countOI =
+            (PrimitiveObjectInspector) countsOI.getListElementObjectInspector();
+        int length = keysOI.getListLength(keys);
+        for (int i = 0; i < length; i++) {
+          putIntoMap(keysOI.getListElement(keys, i),
+              PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), countOI),
+              myagg);
+        }
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      WritableCounters counters = new WritableCounters(myagg.container);
+      if (sort == null) {
+        return ParallelArrays.fromMap(counters, null);
+      } else if (ParallelArrays.SORT_BY_KEY.equals(sort)) {
+        return ParallelArrays.fromMap(counters, ParallelArrays.BY_KEY);
+      } else {
+        return ParallelArrays.fromMap(counters, ParallelArrays.BY_DESCENDING_COUNT);
+      }
+    }
+
+  }
+}
@@ -20,10 +20,11 @@ package org.apache.hadoop.hive.ql.udf.generic;
 import java.util.TreeMap;
 
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Counter;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
-import org.apache.hadoop.io.LongWritable;
 
 /**
  * GenericUDAFToMap.
@@ -34,14 +35,29 @@ import org.apache.hadoop.io.LongWritable;
 public class GenericUDAFCounterMapOrdered extends GenericUDAFCounterMap {
 
   public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 1) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly one argument is expected.");
+    }
     super.getEvaluator(parameters);
     return new GenericUDAFCounterMapOrderedEvaluator();
   }
 
   public static class GenericUDAFCounterMapOrderedEvaluator extends GenericUDAFCounterMapEvaluator {
 
+    // the counters combined in parallel would not be ordered
+    @Override
+    protected boolean canDeferMerge() {
+      return false;
+    }
+
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((CounterMapAgg) agg).container = new TreeMap<Object,LongWritable>();
+      CounterMapAgg myagg = (CounterMapAgg) agg;
+      if (myagg.container != null) {
+        myagg.container.clear();
+      } else {
+        myagg.container = new TreeMap<Object,Counter>();
+      }
     }
 
   }
@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * GenericUDAFFunnel counts how many steps of a funnel the events of a group reach in order,
+ * without collecting the events.
+ *
+ * The state of a group is a small state machine over its events: for each step a group could
+ * have reached before them, the step reached after them, plus the time range of the events. The
+ * events of a split which match a step are kept (a timestamp and a step each) until its partial
+ * aggregation is output, then sorted by timestamp and chained, so they can be read in any order.
+ * Partial aggregations only hold the state machine and are chained by timestamp, which is exact
+ * when their time ranges do not overlap (e.g. one partition per day).
+ * @author Francois Rousseau
+ */
+@Description(name = "funnel",
+             value = "_FUNC_(ts, event, step1, step2, ...) - Returns the number of steps reached"
+                 + " in order by the events, ordered by ts")
+public class GenericUDAFFunnel extends AbstractGenericUDAFResolver {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length < 3) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "At least three arguments are expected.");
+    }
+    checkTimestampParameter(parameters[0], 0);
+    for (int i = 1; i < parameters.length; i++) {
+      if (parameters[i].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || ((PrimitiveTypeInfo) parameters[i]).getPrimitiveCategory()
+              != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+        throw new UDFArgumentTypeException(i,
+            "Only string type arguments are accepted but "
+            + parameters[i].getTypeName() + " is passed.");
+      }
+    }
+    return new GenericUDAFFunnelEvaluator();
+  }
+
+  static void checkTimestampParameter(TypeInfo parameter, int index)
+      throws UDFArgumentTypeException {
+    if (parameter.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+      switch (((PrimitiveTypeInfo) parameter).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case TIMESTAMP:
+        return;
+      default:
+        break;
+      }
+    }
+    throw new UDFArgumentTypeException(index,
+        "Only integer or timestamp type timestamps are accepted but "
+        + parameter.getTypeName() + " is passed.");
+  }
+
+  /**
+   * GenericUDAFFunnelEvaluator.
+   *
+   */
+  public static class GenericUDAFFunnelEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector tsOI;
+    private StringObjectInspector eventOI;
+    private Text[] steps;
+    // stepIds[s] is the first step with the same event as step s
+    private int[] stepIds;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField firstField;
+    private StructField lastField;
+    private StructField nextField;
+    private ListObjectInspector nextOI;
+
+    private IntWritable result;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length >= 3);
+        tsOI = (PrimitiveObjectInspector) parameters[0];
+        eventOI = (StringObjectInspector) parameters[1];
+        steps = new Text[parameters.length - 2];
+        for (int i = 2; i < parameters.length; i++) {
+          if (!(parameters[i] instanceof ConstantObjectInspector)) {
+            throw new UDFArgumentTypeException(i, "The steps must be constants.");
+          }
+          Object step = ((ConstantObjectInspector) parameters[i]).getWritableConstantValue();
+          if (step == null) {
+            throw new UDFArgumentTypeException(i, "The steps must not be null.");
+          }
+          steps[i - 2] = new Text(step.toString());
+        }
+        stepIds = new int[steps.length];
+        for (int s = 0; s < steps.length; s++) {
+          stepIds[s] = 0;
+          while (!steps[stepIds[s]].equals(steps[s])) {
+            stepIds[s]++;
+          }
+        }
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        firstField = internalMergeOI.getStructFieldRef("first");
+        lastField = internalMergeOI.getStructFieldRef("last");
+        nextField = internalMergeOI.getStructFieldRef("next");
+        nextOI = (ListObjectInspector) nextField.getFieldObjectInspector();
+      }
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("first", "last", "next"), fieldOIs);
+      }
+      result = new IntWritable();
+      return PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+    }
+
+    /** class for storing the state machine of the events seen. */
+    static class FunnelAgg implements AggregationBuffer {
+      // next[s] is the step reached after the events when step s was reached before them, the
+      // last entry being the end of the funnel; null until an event of the funnel is seen
+      int[] next;
+      // to chain the partial aggregations
+      int[] scratch;
+      long first;
+      long last;
+      // the events read but not chained yet, and the step each one matches
+      long[] eventTs;
+      int[] eventSteps;
+      int events;
+
+      void addEvent(long ts, int step) {
+        if (eventTs == null) {
+          eventTs = new long[16];
+          eventSteps = new int[16];
+        } else if (events == eventTs.length) {
+          eventTs = Arrays.copyOf(eventTs, 2 * events);
+          eventSteps = Arrays.copyOf(eventSteps, 2 * events);
+        }
+        eventTs[events] = ts;
+        eventSteps[events] = step;
+        events++;
+      }
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      FunnelAgg myagg = (FunnelAgg) agg;
+      myagg.first = Long.MAX_VALUE;
+      myagg.last = Long.MIN_VALUE;
+      myagg.events = 0;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      FunnelAgg result = new FunnelAgg();
+      reset(result);
+      return result;
+    }
+
+    private static boolean isEmpty(FunnelAgg myagg) {
+      return myagg.next == null || myagg.first > myagg.last;
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == steps.length + 2);
+      if (parameters[0] == null || parameters[1] == null) {
+        return;
+      }
+      Text event = eventOI.getPrimitiveWritableObject(parameters[1]);
+      for (int s = 0; s < steps.length; s++) {
+        if (steps[s].equals(event)) {
+          ((FunnelAgg) agg).addEvent(PrimitiveObjectInspectorUtils.getLong(parameters[0], tsOI), s);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Chains the events read so far by timestamp into a state machine, and chains that one with
+     * the state machine of the group. The sort is stable, so events with the same timestamp are
+     * chained in the order they were read.
+     */
+    private void chainEvents(final FunnelAgg myagg) {
+      if (myagg.events == 0) {
+        return;
+      }
+      Integer[] order = new Integer[myagg.events];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          long tsA = myagg.eventTs[a];
+          long tsB = myagg.eventTs[b];
+          return tsA < tsB ? -1 : (tsA == tsB ? 0 : 1);
+        }
+      });
+      int[] next = new int[steps.length + 1];
+      for (int s = 0; s < next.length; s++) {
+        next[s] = s;
+      }
+      for (int e: order) {
+        for (int s = 0; s < next.length; s++) {
+          int step = next[s];
+          if (step < steps.length && stepIds[step] == myagg.eventSteps[e]) {
+            next[s] = step + 1;
+          }
+        }
+      }
+      long first = myagg.eventTs[order[0]];
+      long last = myagg.eventTs[order[order.length - 1]];
+      myagg.events = 0;
+      chain(myagg, first, last, next);
+    }
+
+    /**
+     * Chains a state machine, over events between first and last, with the one of the group. The
+     * array of the other state machine is taken over by the group.
+     */
+    private static void chain(FunnelAgg myagg, long first, long last, int[] other) {
+      int[] next = myagg.next;
+      if (isEmpty(myagg)) {
+        myagg.scratch = next != null && next.length == other.length ? next : new int[other.length];
+        myagg.next = other;
+      } else if (first < myagg.first) {
+        // the other events happened before: their steps are reached first
+        for (int s = 0; s < other.length; s++) {
+          other[s] = next[other[s]];
+        }
+        myagg.scratch = next;
+        myagg.next = other;
+      } else {
+        for (int s = 0; s < other.length; s++) {
+          next[s] = other[next[s]];
+        }
+        myagg.scratch = other;
+      }
+      myagg.first = Math.min(myagg.first, first);
+      myagg.last = Math.max(myagg.last, last);
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      FunnelAgg myagg = (FunnelAgg) agg;
+      chainEvents(myagg);
+      if (isEmpty(myagg)) {
+        return null;
+      }
+      List<IntWritable> next = new ArrayList<IntWritable>(myagg.next.length);
+      for (int step: myagg.next) {
+        next.add(new IntWritable(step));
+      }
+      return new Object[] {new LongWritable(myagg.first), new LongWritable(myagg.last), next};
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      FunnelAgg myagg = (FunnelAgg) agg;
+      long first = PrimitiveObjectInspectorUtils.getLong(
+          internalMergeOI.getStructFieldData(partial, firstField),
+          (PrimitiveObjectInspector) firstField.getFieldObjectInspector());
+      long last = PrimitiveObjectInspectorUtils.getLong(
+          internalMergeOI.getStructFieldData(partial, lastField),
+          (PrimitiveObjectInspector) lastField.getFieldObjectInspector());
+      Object list = internalMergeOI.getStructFieldData(partial, nextField);
+      PrimitiveObjectInspector stepOI =
+          (PrimitiveObjectInspector) nextOI.getListElementObjectInspector();
+      int length = nextOI.getListLength(list);
+      int[] other = myagg.scratch;
+      if (other == null || other.length != length) {
+        other = new int[length];
+      }
+      for (int s = 0; s < length; s++) {
+        other[s] = PrimitiveObjectInspectorUtils.getInt(nextOI.getListElement(list, s), stepOI);
+      }
+      chain(myagg, first, last, other);
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      FunnelAgg myagg = (FunnelAgg) agg;
+      chainEvents(myagg);
+      result.set(isEmpty(myagg) ? 0 : myagg.next[0]);
+      return result;
+    }
+
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * GenericUDAFGroupFingerprint returns a fingerprint of the multiset of rows of a group, which
+ * does not depend on the order of the rows: two groups with the same rows have the same
+ * fingerprint, two groups with different rows almost surely don't.
+ *
+ * Each row is hashed to 128 bits (see RowHasher) and the hashes are combined by commutative
+ * operations: their sums and their xors, 64 bits at a time, and their count. The state of a
+ * group, and its partial aggregation, is therefore five longs whatever its number of rows. The
+ * fingerprint is a hash of that state, output as 32 hexadecimal digits.
+ * @author Francois Rousseau
+ */
+@Description(name = "group_fingerprint",
+             value = "_FUNC_(col1, ...) - Returns a fingerprint of the rows of the group which does"
+                 + " not depend on their order, as a string of 32 hexadecimal digits")
+public class GenericUDAFGroupFingerprint extends AbstractGenericUDAFResolver {
+
+  // the seeds of the hashes of the rows and of the final fingerprint
+  static final long ROW_SEED = 0x5bd1e995L;
+  static final long GROUP_SEED = 0x1b873593L;
+
+  private static final List<String> FIELDS = Arrays.asList(
+      "count", "sum1", "sum2", "xor1", "xor2");
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length == 0) {
+      throw new UDFArgumentTypeException(0, "At least one argument is expected.");
+    }
+    for (int i = 0; i < parameters.length; i++) {
+      if (parameters[i].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || !CompositeKeyPacker.isSupported(
+              ((PrimitiveTypeInfo) parameters[i]).getPrimitiveCategory())) {
+        throw new UDFArgumentTypeException(i,
+            "Only boolean, numeric, string, timestamp or binary type arguments are accepted but "
+            + parameters[i].getTypeName() + " is passed.");
+      }
+    }
+    return new GenericUDAFGroupFingerprintEvaluator();
+  }
+
+  /**
+   * GenericUDAFGroupFingerprintEvaluator.
+   *
+   */
+  public static class GenericUDAFGroupFingerprintEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector[] inputOIs;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField[] fields;
+
+    private final RowHasher hasher = new RowHasher();
+    private final LongWritable[] partialResult = new LongWritable[FIELDS.size()];
+    private final Text result = new Text();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOIs = new PrimitiveObjectInspector[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+          inputOIs[i] = (PrimitiveObjectInspector) parameters[i];
+        }
+      } else {
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        fields = new StructField[FIELDS.size()];
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = internalMergeOI.getStructFieldRef(FIELDS.get(i));
+        }
+      }
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        List<ObjectInspector> ois = new ArrayList<ObjectInspector>(FIELDS.size());
+        for (int i = 0; i < FIELDS.size(); i++) {
+          partialResult[i] = new LongWritable();
+          ois.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        }
+        return ObjectInspectorFactory.getStandardStructObjectInspector(FIELDS, ois);
+      }
+      return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    /** class for storing the commutative combination of the hashes of the rows. */
+    static class GroupFingerprintAgg implements AggregationBuffer {
+      long count;
+      long sum1;
+      long sum2;
+      long xor1;
+      long xor2;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      GroupFingerprintAgg myagg = (GroupFingerprintAgg) agg;
+      myagg.count = 0L;
+      myagg.sum1 = 0L;
+      myagg.sum2 = 0L;
+      myagg.xor1 = 0L;
+      myagg.xor2 = 0L;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      GroupFingerprintAgg result = new GroupFingerprintAgg();
+      reset(result);
+      return result;
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      GroupFingerprintAgg myagg = (GroupFingerprintAgg) agg;
+      hasher.reset(ROW_SEED);
+      for (int i = 0; i < parameters.length; i++) {
+        hasher.add(parameters[i], inputOIs[i]);
+      }
+      hasher.finish();
+      myagg.count++;
+      myagg.sum1 += hasher.high();
+      myagg.sum2 += hasher.low();
+      myagg.xor1 ^= hasher.high();
+      myagg.xor2 ^= hasher.low();
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      GroupFingerprintAgg myagg = (GroupFingerprintAgg) agg;
+      partialResult[0].set(myagg.count);
+      partialResult[1].set(myagg.sum1);
+      partialResult[2].set(myagg.sum2);
+      partialResult[3].set(myagg.xor1);
+      partialResult[4].set(myagg.xor2);
+      return partialResult;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        GroupFingerprintAgg myagg = (GroupFingerprintAgg) agg;
+        myagg.count += get(partial, 0);
+        myagg.sum1 += get(partial, 1);
+        myagg.sum2 += get(partial, 2);
+        myagg.xor1 ^= get(partial, 3);
+        myagg.xor2 ^= get(partial, 4);
+      }
+    }
+
+    private long get(Object partial, int i) {
+      return ((LongObjectInspector) fields[i].getFieldObjectInspector()).get(
+          internalMergeOI.getStructFieldData(partial, fields[i]));
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      GroupFingerprintAgg myagg = (GroupFingerprintAgg) agg;
+      if (myagg.count == 0L) {
+        return null;
+      }
+      hasher.reset(GROUP_SEED);
+      hasher.addLong(myagg.count);
+      hasher.addLong(myagg.sum1);
+      hasher.addLong(myagg.sum2);
+      hasher.addLong(myagg.xor1);
+      hasher.addLong(myagg.xor2);
+      hasher.finish();
+      result.set(String.format("%016x%016x", hasher.high(), hasher.low()));
+      return result;
+    }
+
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * GenericUDAFMergeCounterMaps.
+ * @author Francois Rousseau
+ */
+@Description(name = "merge_counter_maps",
+             value = "_FUNC_(x) - Returns a counter map summing all the counter maps inside x")
+public class GenericUDAFMergeCounterMaps extends AbstractGenericUDAFResolver {
+
+  static final Log LOG = LogFactory.getLog(GenericUDAFMergeCounterMaps.class.getName());
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 1) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly one argument is expected.");
+    }
+
+    final TypeInfo parameter = parameters[0];
+    if (parameter.getCategory() != ObjectInspector.Category.MAP) {
+      throw new UDFArgumentTypeException(0,
+          "Only map type arguments are accepted but "
+          + parameter.getTypeName() + " is passed.");
+    }
+    final TypeInfo keyType = ((MapTypeInfo) parameter).getMapKeyTypeInfo();
+    if (keyType.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only primitive type keys are accepted but "
+          + keyType.getTypeName() + " is passed.");
+    }
+    final TypeInfo valueType = ((MapTypeInfo) parameter).getMapValueTypeInfo();
+    if (valueType.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only integer type values are accepted but "
+          + valueType.getTypeName() + " is passed.");
+    }
+    switch (((PrimitiveTypeInfo) valueType).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        break;
+      default:
+        throw new UDFArgumentTypeException(0,
+            "Only integer type values are accepted but "
+            + valueType.getTypeName() + " is passed.");
+    }
+
+    return GenericUDAFCounterMap.configureMerge(new GenericUDAFMergeCounterMapsEvaluator());
+  }
+
+  /**
+   * GenericUDAFMergeCounterMapsEvaluator.
+   *
+   */
+  public static class GenericUDAFMergeCounterMapsEvaluator
+      extends GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspector for the counter maps to merge
+    private MapObjectInspector inputMapOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      assert (parameters.length == 1);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        // the original data is a map (lazy or not): we are counting its keys
+        inputMapOI = (MapObjectInspector) parameters[0];
+        return initKeys(m, parameters,
+            (PrimitiveObjectInspector) inputMapOI.getMapKeyObjectInspector());
+      } else {
+        return super.init(m, parameters);
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 1);
+      try {
+        if (parameters[0] != null) {
+          CounterMapAgg myagg = (CounterMapAgg) agg;
+          putAllIntoMap(parameters[0], inputMapOI, myagg);
+        }
+      } catch (NumberFormatException e) {
+        if (!warned) {
+          warned = true;
+          LOG.warn(getClass().getSimpleName() + " " + StringUtils.stringifyException(e));
+          LOG.warn(getClass().getSimpleName() + " ignoring similar exceptions.");
+        }
+      }
+    }
+
+    /** Subtracts a counter map previously passed to iterate. */
+    @Override
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 1);
+      if (parameters[0] != null) {
+        CounterMapAgg myagg = (CounterMapAgg) agg;
+        PrimitiveObjectInspector countOI =
+            (PrimitiveObjectInspector) inputMapOI.getMapValueObjectInspector();
+        for (Map.Entry<?,?> entry: inputMapOI.getMap(parameters[0]).entrySet()) {
+          if (entry.getValue() != null) {
+            COUNTERS.decrement(myagg.container, getLookupKey(entry.getKey()),
+                PrimitiveObjectInspectorUtils.getLong(entry.getValue(), countOI));
+          }
+        }
+      }
+    }
+
+  }
+
+}
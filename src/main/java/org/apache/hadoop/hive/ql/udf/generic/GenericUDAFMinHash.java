@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * GenericUDAFMinHash returns the MinHash signature of the set of distinct values of a group:
+ * for each of k hash functions, the smallest hash of a value. Two signatures agree on a
+ * function with a probability equal to the Jaccard similarity of their sets, which
+ * minhash_jaccard estimates, and minhash_bands cuts them into band keys to find candidate
+ * pairs of similar sets with an equi-join (locality-sensitive hashing).
+ *
+ * The state of a group is a long[k] whatever its number of values, and partial aggregations are
+ * merged by taking the elementwise minimum. Each value is hashed once to 128 bits (see
+ * RowHasher) and the k hashes are derived from the two halves, h1 + i * h2, then mixed. The
+ * signature is output as 8 * k bytes, the k minimums in big-endian order.
+ * @author Francois Rousseau
+ */
+@Description(name = "minhash",
+             value = "_FUNC_(x, k) - Returns the MinHash signature of the distinct values of x, as"
+                 + " the binary of k longs")
+public class GenericUDAFMinHash extends AbstractGenericUDAFResolver {
+
+  static final long SEED = 0x2545f4914f6cdd1dL;
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly two arguments are expected.");
+    }
+    // the elements of an array are added as if the array had been exploded
+    TypeInfo value = parameters[0];
+    if (value.getCategory() == ObjectInspector.Category.LIST) {
+      value = ((ListTypeInfo) value).getListElementTypeInfo();
+    }
+    if (value.getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !CompositeKeyPacker.isSupported(((PrimitiveTypeInfo) value).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(0,
+          "Only boolean, numeric, string, timestamp or binary type values are accepted but "
+          + parameters[0].getTypeName() + " is passed.");
+    }
+    if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveObjectInspector.PrimitiveCategory.BYTE,
+            PrimitiveObjectInspector.PrimitiveCategory.SHORT,
+            PrimitiveObjectInspector.PrimitiveCategory.INT,
+            PrimitiveObjectInspector.PrimitiveCategory.LONG).contains(
+                ((PrimitiveTypeInfo) parameters[1]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(1,
+          "Only an integer k is accepted but " + parameters[1].getTypeName() + " is passed.");
+    }
+    return new GenericUDAFMinHashEvaluator();
+  }
+
+  /** Writes a signature as 8 bytes per long, big-endian. */
+  static void toBytes(long[] signature, BytesWritable out) {
+    out.setSize(8 * signature.length);
+    byte[] bytes = out.getBytes();
+    for (int i = 0; i < signature.length; i++) {
+      long h = signature[i];
+      for (int j = 7; j >= 0; j--) {
+        bytes[8 * i + j] = (byte) h;
+        h >>>= 8;
+      }
+    }
+  }
+
+  /** Returns the i-th long of a signature read from its bytes. */
+  static long getLong(byte[] bytes, int i) {
+    long h = 0L;
+    for (int j = 8 * i; j < 8 * i + 8; j++) {
+      h = (h << 8) | (bytes[j] & 0xFFL);
+    }
+    return h;
+  }
+
+  /**
+   * GenericUDAFMinHashEvaluator.
+   *
+   */
+  public static class GenericUDAFMinHashEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector inputOI;
+    private ListObjectInspector inputListOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private BinaryObjectInspector internalMergeOI;
+
+    private final RowHasher hasher = new RowHasher();
+    private final BytesWritable result = new BytesWritable();
+
+    // k is only known on the map-side, the reduce-side gets it from the length of the partials
+    private int k = 0;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 2);
+        if (parameters[0].getCategory() == ObjectInspector.Category.LIST) {
+          inputListOI = (ListObjectInspector) parameters[0];
+          inputOI = (PrimitiveObjectInspector) inputListOI.getListElementObjectInspector();
+        } else {
+          inputOI = (PrimitiveObjectInspector) parameters[0];
+        }
+        if (!(parameters[1] instanceof ConstantObjectInspector)) {
+          throw new UDFArgumentTypeException(1, "k must be a constant.");
+        }
+        long size = PrimitiveObjectInspectorUtils.getLong(
+            ((ConstantObjectInspector) parameters[1]).getWritableConstantValue(),
+            (PrimitiveObjectInspector) parameters[1]);
+        if (size <= 0 || size > Integer.MAX_VALUE / 8) {
+          throw new UDFArgumentTypeException(1, "k must be a positive int but " + size
+              + " is passed.");
+        }
+        k = (int) size;
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (BinaryObjectInspector) parameters[0];
+      }
+      return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+    }
+
+    /** class for storing the k minimums, allocated once and refilled for each group. */
+    static class MinHashAgg implements AggregationBuffer {
+      long[] signature;
+      // whether no value has been seen since the last reset
+      boolean empty;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      MinHashAgg myagg = (MinHashAgg) agg;
+      if (myagg.signature != null) {
+        Arrays.fill(myagg.signature, Long.MAX_VALUE);
+      } else if (k > 0) {
+        myagg.signature = newSignature(k);
+      }
+      myagg.empty = true;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      MinHashAgg result = new MinHashAgg();
+      reset(result);
+      return result;
+    }
+
+    private static long[] newSignature(int k) {
+      long[] signature = new long[k];
+      Arrays.fill(signature, Long.MAX_VALUE);
+      return signature;
+    }
+
+    private void add(Object value, MinHashAgg myagg) {
+      if (value == null) {
+        return;
+      }
+      hasher.reset(SEED);
+      hasher.add(value, inputOI);
+      hasher.finish();
+      long h1 = hasher.high();
+      long h2 = hasher.low();
+      myagg.empty = false;
+      long[] signature = myagg.signature;
+      for (int i = 0; i < signature.length; i++) {
+        long h = RowHasher.fmix(h1 + i * h2);
+        if (h < signature[i]) {
+          signature[i] = h;
+        }
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 2);
+      MinHashAgg myagg = (MinHashAgg) agg;
+      if (inputListOI == null) {
+        add(parameters[0], myagg);
+      } else if (parameters[0] != null) {
+        int length = inputListOI.getListLength(parameters[0]);
+        for (int i = 0; i < length; i++) {
+          add(inputListOI.getListElement(parameters[0], i), myagg);
+        }
+      }
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      return terminate(agg);
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        MinHashAgg myagg = (MinHashAgg) agg;
+        BytesWritable bytes = internalMergeOI.getPrimitiveWritableObject(partial);
+        int length = bytes.getLength() / 8;
+        if (myagg.signature == null || (myagg.empty && myagg.signature.length != length)) {
+          // the first partial gives k
+          myagg.signature = newSignature(length);
+        } else if (myagg.signature.length != length) {
+          throw new HiveException("Signatures of " + myagg.signature.length + " and " + length
+              + " hashes can't be merged.");
+        }
+        myagg.empty = false;
+        long[] signature = myagg.signature;
+        for (int i = 0; i < length; i++) {
+          signature[i] = Math.min(signature[i], getLong(bytes.getBytes(), i));
+        }
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      MinHashAgg myagg = (MinHashAgg) agg;
+      if (myagg.empty) {
+        return null;
+      }
+      toBytes(myagg.signature, result);
+      return result;
+    }
+
+  }
+}
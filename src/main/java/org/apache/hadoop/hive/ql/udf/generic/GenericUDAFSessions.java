@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDAFSessions splits the events of a group into sessions, a new session starting after
+ * more than gap without any event, and only keeps the start, the end and the number of events of
+ * each session. Sessions of different partial aggregations which overlap or are less than gap
+ * apart are merged, which gives the same sessions as the events themselves.
+ * @author Francois Rousseau
+ */
+@Description(name = "sessions",
+             value = "_FUNC_(ts, gap) - Returns the sessions of the events, a new session"
+                 + " starting after more than gap without any event, as"
+                 + " array<struct<start:bigint,end:bigint,count:bigint>> ordered by start")
+public class GenericUDAFSessions extends AbstractGenericUDAFResolver {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly two arguments are expected.");
+    }
+    GenericUDAFFunnel.checkTimestampParameter(parameters[0], 0);
+    if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveObjectInspector.PrimitiveCategory.BYTE,
+            PrimitiveObjectInspector.PrimitiveCategory.SHORT,
+            PrimitiveObjectInspector.PrimitiveCategory.INT,
+            PrimitiveObjectInspector.PrimitiveCategory.LONG).contains(
+                ((PrimitiveTypeInfo) parameters[1]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(1,
+          "Only an integer gap is accepted but " + parameters[1].getTypeName() + " is passed.");
+    }
+    return new GenericUDAFSessionsEvaluator();
+  }
+
+  /**
+   * GenericUDAFSessionsEvaluator.
+   *
+   */
+  public static class GenericUDAFSessionsEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector tsOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField gapField;
+    private StructField startsField;
+    private StructField endsField;
+    private StructField countsField;
+
+    // the gap is only known on the map-side and travels with the partial aggregations
+    private long gap = -1;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 2);
+        tsOI = (PrimitiveObjectInspector) parameters[0];
+        if (!(parameters[1] instanceof ConstantObjectInspector)) {
+          throw new UDFArgumentTypeException(1, "The gap must be a constant.");
+        }
+        gap = PrimitiveObjectInspectorUtils.getLong(
+            ((ConstantObjectInspector) parameters[1]).getWritableConstantValue(),
+            (PrimitiveObjectInspector) parameters[1]);
+        if (gap < 0) {
+          throw new UDFArgumentTypeException(1, "The gap must not be negative.");
+        }
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        gapField = internalMergeOI.getStructFieldRef("gap");
+        startsField = internalMergeOI.getStructFieldRef("starts");
+        endsField = internalMergeOI.getStructFieldRef("ends");
+        countsField = internalMergeOI.getStructFieldRef("counts");
+      }
+      ObjectInspector longOI = PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("gap", "starts", "ends", "counts"), Arrays.asList(longOI,
+                ObjectInspectorFactory.getStandardListObjectInspector(longOI),
+                ObjectInspectorFactory.getStandardListObjectInspector(longOI),
+                ObjectInspectorFactory.getStandardListObjectInspector(longOI)));
+      }
+      return ObjectInspectorFactory.getStandardListObjectInspector(
+          ObjectInspectorFactory.getStandardStructObjectInspector(
+              Arrays.asList("start", "end", "count"), Arrays.asList(longOI, longOI, longOI)));
+    }
+
+    // Final numbers of sessions of the recent groups, used to presize the buffers of the next ones
+    protected final GroupSizeEstimator groupSizes = new GroupSizeEstimator(4);
+
+    /** class for storing the sessions, ordered by start. */
+    static class SessionsAgg implements AggregationBuffer {
+      long[] starts;
+      long[] ends;
+      long[] counts;
+      int size;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      SessionsAgg myagg = (SessionsAgg) agg;
+      if (myagg.starts == null || groupSizes.isOversized(myagg.starts.length)) {
+        int capacity = groupSizes.estimate();
+        myagg.starts = new long[capacity];
+        myagg.ends = new long[capacity];
+        myagg.counts = new long[capacity];
+      }
+      myagg.size = 0;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      SessionsAgg result = new SessionsAgg();
+      reset(result);
+      return result;
+    }
+
+    /**
+     * Adds a session to the buffer, merging it with the sessions it overlaps or which are less
+     * than gap apart. Sessions added in order only touch the last one.
+     */
+    protected void addSession(long start, long end, long count, SessionsAgg myagg) {
+      long[] starts = myagg.starts;
+      long[] ends = myagg.ends;
+      long[] counts = myagg.counts;
+      int size = myagg.size;
+      // the first session which does not end more than gap before the start
+      int i = size;
+      if (size > 0 && start - ends[size - 1] <= gap) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+          int mid = (low + high) >>> 1;
+          if (start - ends[mid] <= gap) {
+            high = mid;
+          } else {
+            low = mid + 1;
+          }
+        }
+        i = low;
+      }
+      if (i == size || starts[i] - end > gap) {
+        // a new session
+        if (size == starts.length) {
+          int capacity = Math.max(4, 2 * size);
+          myagg.starts = starts = Arrays.copyOf(starts, capacity);
+          myagg.ends = ends = Arrays.copyOf(ends, capacity);
+          myagg.counts = counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(starts, i, starts, i + 1, size - i);
+        System.arraycopy(ends, i, ends, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        starts[i] = start;
+        ends[i] = end;
+        counts[i] = count;
+        myagg.size = size + 1;
+        return;
+      }
+      starts[i] = Math.min(starts[i], start);
+      ends[i] = Math.max(ends[i], end);
+      counts[i] += count;
+      // the session may now reach the next ones
+      int j = i + 1;
+      while (j < size && starts[j] - ends[i] <= gap) {
+        ends[i] = Math.max(ends[i], ends[j]);
+        counts[i] += counts[j];
+        j++;
+      }
+      if (j > i + 1) {
+        System.arraycopy(starts, j, starts, i + 1, size - j);
+        System.arraycopy(ends, j, ends, i + 1, size - j);
+        System.arraycopy(counts, j, counts, i + 1, size - j);
+        myagg.size = size - (j - i - 1);
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 2);
+      if (parameters[0] != null) {
+        long ts = PrimitiveObjectInspectorUtils.getLong(parameters[0], tsOI);
+        addSession(ts, ts, 1L, (SessionsAgg) agg);
+      }
+    }
+
+    private static List<LongWritable> toList(long[] values, int size) {
+      List<LongWritable> result = new ArrayList<LongWritable>(size);
+      for (int i = 0; i < size; i++) {
+        result.add(new LongWritable(values[i]));
+      }
+      return result;
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      SessionsAgg myagg = (SessionsAgg) agg;
+      groupSizes.add(myagg.size);
+      return new Object[] {new LongWritable(gap), toList(myagg.starts, myagg.size),
+          toList(myagg.ends, myagg.size), toList(myagg.counts, myagg.size)};
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      SessionsAgg myagg = (SessionsAgg) agg;
+      gap = PrimitiveObjectInspectorUtils.getLong(
+          internalMergeOI.getStructFieldData(partial, gapField),
+          (PrimitiveObjectInspector) gapField.getFieldObjectInspector());
+      ListObjectInspector startsOI = (ListObjectInspector) startsField.getFieldObjectInspector();
+      ListObjectInspector endsOI = (ListObjectInspector) endsField.getFieldObjectInspector();
+      ListObjectInspector countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+      PrimitiveObjectInspector longOI =
+          (PrimitiveObjectInspector) startsOI.getListElementObjectInspector();
+      Object starts = internalMergeOI.getStructFieldData(partial, startsField);
+      Object ends = internalMergeOI.getStructFieldData(partial, endsField);
+      Object counts = internalMergeOI.getStructFieldData(partial, countsField);
+      int length = startsOI.getListLength(starts);
+      for (int i = 0; i < length; i++) {
+        addSession(
+            PrimitiveObjectInspectorUtils.getLong(startsOI.getListElement(starts, i), longOI),
+            PrimitiveObjectInspectorUtils.getLong(endsOI.getListElement(ends, i), longOI),
+            PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), longOI),
+            myagg);
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      SessionsAgg myagg = (SessionsAgg) agg;
+      groupSizes.add(myagg.size);
+      List<Object> result = new ArrayList<Object>(myagg.size);
+      for (int i = 0; i < myagg.size; i++) {
+        result.add(new Object[] {new LongWritable(myagg.starts[i]),
+            new LongWritable(myagg.ends[i]), new LongWritable(myagg.counts[i])});
+      }
+      return result;
+    }
+
+  }
+}
@@ -23,10 +23,14 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Aggregators;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.io.Text;
@@ -59,10 +63,13 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
           + parameter.getTypeName() + " is passed.");
     }
     switch (((PrimitiveTypeInfo) parameter).getPrimitiveCategory()) {
-      case SHORT:
       case INT:
+        return new GenericUDAFIntStringBuilderEvaluator();
       case LONG:
+        return new GenericUDAFLongStringBuilderEvaluator();
       case STRING:
+        return new GenericUDAFStringStringBuilderEvaluator();
+      case SHORT:
         break;
       case TIMESTAMP:
       case FLOAT:
@@ -81,7 +88,7 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
    *
    */
   public static class GenericUDAFStringBuilderEvaluator extends GenericUDAFEvaluator {
-    private PrimitiveObjectInspector inputOI;
+    protected PrimitiveObjectInspector inputOI;
     private Text result;
 
     @Override
@@ -93,6 +100,13 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
       return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
     }
 
+    // Final lengths of the recent groups, used to presize the buffers of the next ones
+    protected final GroupSizeEstimator groupSizes = new GroupSizeEstimator(16);
+
+    // the aggregation itself, which the evaluators adapt to Hive
+    protected static final Aggregators.StringBuilderAggregator STRINGS =
+        Aggregators.stringBuilder();
+
     /** class for storing the current string builder. */
     static class StringBuilderAgg implements AggregationBuffer {
       StringBuilder container;
@@ -100,7 +114,12 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
 
     @Override
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((StringBuilderAgg) agg).container = new StringBuilder();
+      StringBuilderAgg myagg = (StringBuilderAgg) agg;
+      if (myagg.container != null && !groupSizes.isOversized(myagg.container.length())) {
+        myagg.container.setLength(0);
+      } else {
+        myagg.container = STRINGS.newState(groupSizes.estimate());
+      }
     }
 
     @Override
@@ -140,7 +159,7 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
     public void merge(AggregationBuffer agg, Object partial) throws HiveException {
       if (partial != null) {
         String pCopy = PrimitiveObjectInspectorUtils.getString(partial, inputOI);
-        ((StringBuilderAgg) agg).container.append(pCopy);
+        STRINGS.add(((StringBuilderAgg) agg).container, pCopy);
       }
     }
 
@@ -148,13 +167,100 @@ public class GenericUDAFStringBuilder extends AbstractGenericUDAFResolver {
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       StringBuilderAgg myagg = (StringBuilderAgg) agg;
-      if (myagg.container.length() == 0) {
+      groupSizes.add(myagg.container.length());
+      String value = STRINGS.finish(myagg.container);
+      if (value == null) {
         return null;
       }
-      result.set(myagg.container.toString());
+      result.set(value);
       return result;
     }
 
   }
 
+  /**
+   * GenericUDAFIntStringBuilderEvaluator appends int values read through their concrete
+   * ObjectInspector, without converting them to strings first.
+   */
+  public static class GenericUDAFIntStringBuilderEvaluator
+      extends GenericUDAFStringBuilderEvaluator {
+    private IntObjectInspector valueOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      // the partial aggregations are strings
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        valueOI = (IntObjectInspector) inputOI;
+      }
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (valueOI == null) {
+        super.merge(agg, partial);
+      } else if (partial != null) {
+        STRINGS.add(((StringBuilderAgg) agg).container, valueOI.get(partial));
+      }
+    }
+
+  }
+
+  /**
+   * GenericUDAFLongStringBuilderEvaluator appends bigint values read through their concrete
+   * ObjectInspector, without converting them to strings first.
+   */
+  public static class GenericUDAFLongStringBuilderEvaluator
+      extends GenericUDAFStringBuilderEvaluator {
+    private LongObjectInspector valueOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      // the partial aggregations are strings
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        valueOI = (LongObjectInspector) inputOI;
+      }
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (valueOI == null) {
+        super.merge(agg, partial);
+      } else if (partial != null) {
+        STRINGS.add(((StringBuilderAgg) agg).container, valueOI.get(partial));
+      }
+    }
+
+  }
+
+  /**
+   * GenericUDAFStringStringBuilderEvaluator appends string values, read through their concrete
+   * ObjectInspector.
+   */
+  public static class GenericUDAFStringStringBuilderEvaluator
+      extends GenericUDAFStringBuilderEvaluator {
+    private StringObjectInspector valueOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      valueOI = (StringObjectInspector) inputOI;
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        STRINGS.add(((StringBuilderAgg) agg).container, valueOI.getPrimitiveJavaObject(partial));
+      }
+    }
+
+  }
+
 }
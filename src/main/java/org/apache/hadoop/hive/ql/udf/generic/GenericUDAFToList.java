@@ -26,11 +26,21 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Aggregators;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.util.StringUtils;
 
@@ -38,7 +48,8 @@ import org.apache.hadoop.util.StringUtils;
  * GenericUDAFToList.
  * @author Francois Rousseau
  */
-@Description(name = "to_list", value = "_FUNC_(x) - Returns a list from all the values of x."
+@Description(name = "to_list", value = "_FUNC_(x) - Returns a list from all the values of x,"
+             + " or from all their elements if x is an array."
              + "CAUTION will easily OOM on large data sets.")
 public class GenericUDAFToList extends AbstractGenericUDAFResolver {
 
@@ -51,14 +62,29 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
           "Exactly one argument are expected.");
     }
 
-    final TypeInfo parameter = parameters[0];
+    TypeInfo parameter = parameters[0];
+    if (parameter.getCategory() == ObjectInspector.Category.LIST) {
+      // the elements of an array are collected as if it had been exploded into rows
+      parameter = ((ListTypeInfo) parameter).getListElementTypeInfo();
+    }
     if (parameter.getCategory() != ObjectInspector.Category.PRIMITIVE) {
       throw new UDFArgumentTypeException(0,
           "Only primitive type arguments are accepted but "
           + parameter.getTypeName() + " is passed.");
     }
 
-    return new GenericUDAFToListEvaluator();
+    switch (((PrimitiveTypeInfo) parameter).getPrimitiveCategory()) {
+    case INT:
+      return new GenericUDAFIntToListEvaluator();
+    case LONG:
+      return new GenericUDAFLongToListEvaluator();
+    case DOUBLE:
+      return new GenericUDAFDoubleToListEvaluator();
+    case STRING:
+      return new GenericUDAFStringToListEvaluator();
+    default:
+      return new GenericUDAFToListEvaluator();
+    }
   }
 
   /**
@@ -67,7 +93,10 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
    */
   public static class GenericUDAFToListEvaluator extends GenericUDAFEvaluator {
     // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
-    private PrimitiveObjectInspector inputOI;
+    protected PrimitiveObjectInspector inputOI;
+
+    // For PARTIAL1 and COMPLETE: ObjectInspector of the arrays whose elements are collected
+    protected ListObjectInspector inputListOI;
 
     // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations 
     private StandardListObjectInspector internalMergeOI;
@@ -76,32 +105,73 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
     public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
       assert (parameters.length == 1);
       super.init(m, parameters);
-      if (m == Mode.PARTIAL1) {
-        inputOI = (PrimitiveObjectInspector) parameters[0];
-        return ObjectInspectorFactory.getStandardListObjectInspector(
-            (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputOI));
-      } else {
-        if (!(parameters[0] instanceof StandardListObjectInspector)) {
-          inputOI = (PrimitiveObjectInspector) parameters[0];
-          return ObjectInspectorFactory.getStandardListObjectInspector(
-              (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputOI));
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        if (parameters[0].getCategory() == ObjectInspector.Category.LIST) {
+          inputListOI = (ListObjectInspector) parameters[0];
+          inputOI = (PrimitiveObjectInspector) inputListOI.getListElementObjectInspector();
         } else {
-          internalMergeOI = (StandardListObjectInspector) parameters[0];
-          inputOI = (PrimitiveObjectInspector) internalMergeOI.getListElementObjectInspector();
-          return (StandardListObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(
-              internalMergeOI);                 
+          inputOI = (PrimitiveObjectInspector) parameters[0];
         }
+      } else {
+        internalMergeOI = (StandardListObjectInspector) parameters[0];
+        inputOI = (PrimitiveObjectInspector) internalMergeOI.getListElementObjectInspector();
       }
+      numeric = NumericList.isSupported(inputOI.getPrimitiveCategory());
+      return ObjectInspectorFactory.getStandardListObjectInspector(
+          getStandardElementObjectInspector());
     }
 
+    /** Returns the ObjectInspector of the elements of the list. */
+    protected ObjectInspector getStandardElementObjectInspector() {
+      // numbers are read back from a NumericList as writables
+      return numeric
+          ? ObjectInspectorUtils.getStandardObjectInspector(inputOI,
+              ObjectInspectorCopyOption.WRITABLE)
+          : SlabStore.getStandardObjectInspector(inputOI);
+    }
+
+    // Final sizes of the recent groups, used to presize the buffers of the next ones
+    protected final GroupSizeEstimator groupSizes = new GroupSizeEstimator(10);
+
+    // the aggregation itself, which the evaluators adapt to Hive
+    protected static final Aggregators.ToList<Object> VALUES = Aggregators.toList();
+
     /** class for storing the current string builder. */
     static class ToListAgg implements AggregationBuffer {
       List<Object> container;
+      // the container itself when the values are numbers
+      NumericList numbers;
+      // the container itself when the values are stored off-heap
+      SlabStore.ValueList offHeap;
+      // the number of values at the head of the container which have been removed
+      int removed;
     }
 
+    private boolean numeric;
+
     @Override
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((ToListAgg) agg).container = new ArrayList<Object>();
+      ToListAgg myagg = (ToListAgg) agg;
+      myagg.removed = 0;
+      if (numeric) {
+        if (myagg.numbers != null && !groupSizes.isOversized(myagg.numbers.size())) {
+          myagg.numbers.clear();
+        } else {
+          myagg.numbers = new NumericList(inputOI.getPrimitiveCategory(), groupSizes.estimate());
+          myagg.container = myagg.numbers;
+        }
+      } else if (SlabStore.OFF_HEAP) {
+        if (myagg.offHeap != null) {
+          myagg.offHeap.clear();
+        } else {
+          myagg.offHeap = new SlabStore.ValueList(true);
+          myagg.container = myagg.offHeap;
+        }
+      } else if (myagg.container != null && !groupSizes.isOversized(myagg.container.size())) {
+        myagg.container.clear();
+      } else {
+        myagg.container = VALUES.newState(groupSizes.estimate());
+      }
     }
 
     @Override
@@ -112,8 +182,16 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
     }
 
     protected void putIntoList(Object p, ToListAgg myagg) {
-      Object pCopy = ObjectInspectorUtils.copyToStandardObject(p,this.inputOI);
-      myagg.container.add(pCopy);
+      if (myagg.numbers != null) {
+        myagg.numbers.add(p, this.inputOI);
+        return;
+      }
+      if (myagg.offHeap != null) {
+        myagg.offHeap.add(p, this.inputOI);
+        return;
+      }
+      Object pCopy = StringCanonicalizer.copyToStandardObject(p, this.inputOI);
+      VALUES.add(myagg.container, pCopy);
     }
 
     boolean warned = false;
@@ -126,7 +204,18 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
         Object p = parameters[0];
         if (p != null) {
           ToListAgg myagg = (ToListAgg) agg;
-          putIntoList(p, myagg);
+          if (inputListOI == null) {
+            putIntoList(p, myagg);
+          } else {
+            // the elements are read in place, without any intermediate row
+            int length = inputListOI.getListLength(p);
+            for (int i = 0; i < length; i++) {
+              Object element = inputListOI.getListElement(p, i);
+              if (element != null) {
+                putIntoList(element, myagg);
+              }
+            }
+          }
         }
       } catch (NumberFormatException e) {
         if (!warned) {
@@ -137,6 +226,54 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
       }
     }
 
+    /**
+     * Removes a row previously passed to iterate, which must be the oldest row still in the list,
+     * as when a sliding window (e.g. a ROWS frame) moves by iterating over the row which enters it
+     * and removing the one which leaves it. Its values are only skipped at the head of the list,
+     * which is compacted once they are the majority.
+     */
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 1);
+      Object p = parameters[0];
+      if (p == null) {
+        return;
+      }
+      ToListAgg myagg = (ToListAgg) agg;
+      if (inputListOI == null) {
+        myagg.removed++;
+      } else {
+        int length = inputListOI.getListLength(p);
+        for (int i = 0; i < length; i++) {
+          if (inputListOI.getListElement(p, i) != null) {
+            myagg.removed++;
+          }
+        }
+      }
+      myagg.removed = Math.min(myagg.removed, myagg.container.size());
+      if (myagg.removed > 2 * (myagg.container.size() - myagg.removed)) {
+        compact(myagg);
+      }
+    }
+
+    /** Moves the values which have not been removed to the head of the container. */
+    private void compact(ToListAgg myagg) {
+      List<Object> values = new ArrayList<Object>(
+          myagg.container.subList(myagg.removed, myagg.container.size()));
+      myagg.container.clear();
+      myagg.removed = 0;
+      // the values are added back in the form in which they are read
+      ObjectInspector oi = getStandardElementObjectInspector();
+      for (Object value: values) {
+        if (myagg.numbers != null) {
+          myagg.numbers.add(value, (PrimitiveObjectInspector) oi);
+        } else if (myagg.offHeap != null) {
+          myagg.offHeap.add(value, oi);
+        } else {
+          VALUES.add(myagg.container, value);
+        }
+      }
+    }
+
     // Map-side
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
@@ -158,10 +295,118 @@ public class GenericUDAFToList extends AbstractGenericUDAFResolver {
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       ToListAgg myagg = (ToListAgg) agg;
+      groupSizes.add(myagg.container.size());
       if (myagg.container.size() < 0) {
         return null;
       }
-      return myagg.container;
+      if (myagg.removed > 0) {
+        return VALUES.finish(myagg.container.subList(myagg.removed, myagg.container.size()));
+      }
+      return VALUES.finish(myagg.container);
+    }
+
+  }
+
+  /**
+   * GenericUDAFIntToListEvaluator collects int values, read through their concrete
+   * ObjectInspector.
+   */
+  public static class GenericUDAFIntToListEvaluator extends GenericUDAFToListEvaluator {
+    private IntObjectInspector elementOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      elementOI = (IntObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected void putIntoList(Object p, ToListAgg myagg) {
+      if (p == null) {
+        super.putIntoList(p, myagg);
+        return;
+      }
+      myagg.numbers.addLong(elementOI.get(p));
+    }
+
+  }
+
+  /**
+   * GenericUDAFLongToListEvaluator collects long values, read through their concrete
+   * ObjectInspector.
+   */
+  public static class GenericUDAFLongToListEvaluator extends GenericUDAFToListEvaluator {
+    private LongObjectInspector elementOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      elementOI = (LongObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected void putIntoList(Object p, ToListAgg myagg) {
+      if (p == null) {
+        super.putIntoList(p, myagg);
+        return;
+      }
+      myagg.numbers.addLong(elementOI.get(p));
+    }
+
+  }
+
+  /**
+   * GenericUDAFDoubleToListEvaluator collects double values, read through their concrete
+   * ObjectInspector.
+   */
+  public static class GenericUDAFDoubleToListEvaluator extends GenericUDAFToListEvaluator {
+    private DoubleObjectInspector elementOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      elementOI = (DoubleObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected void putIntoList(Object p, ToListAgg myagg) {
+      if (p == null) {
+        super.putIntoList(p, myagg);
+        return;
+      }
+      myagg.numbers.addDouble(elementOI.get(p));
+    }
+
+  }
+
+  /**
+   * GenericUDAFStringToListEvaluator collects string values, copied from their Text form.
+   */
+  public static class GenericUDAFStringToListEvaluator extends GenericUDAFToListEvaluator {
+    private StringObjectInspector elementOI;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      elementOI = (StringObjectInspector) inputOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardElementObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    @Override
+    protected void putIntoList(Object p, ToListAgg myagg) {
+      if (p == null || myagg.offHeap != null) {
+        super.putIntoList(p, myagg);
+        return;
+      }
+      VALUES.add(myagg.container, StringCanonicalizer.copy(p, elementOI));
     }
 
   }
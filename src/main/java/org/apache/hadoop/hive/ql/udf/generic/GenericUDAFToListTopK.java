@@ -0,0 +1,322 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * GenericUDAFToListTopK returns the values of the n rows with the greatest (or smallest) order
+ * keys of a group, sorted by order key. Only n rows are kept, in a heap whose root is the kept
+ * row which would be evicted first, so a row which does not make it is rejected after a single
+ * comparison and without copying its value. The partial aggregations hold at most n rows, sorted,
+ * and are merged until their first row which does not make it.
+ * @author Francois Rousseau
+ */
+@Description(name = "to_list_topk",
+             value = "_FUNC_(x, key, n [, order]) - Returns a list of the values of x of the n"
+                 + " rows with the greatest key ('desc', the default) or the smallest ('asc'),"
+                 + " sorted by key in that order")
+public class GenericUDAFToListTopK extends AbstractGenericUDAFResolver {
+
+  static final String ASC = "asc";
+  static final String DESC = "desc";
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 3 && parameters.length != 4) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Three or four arguments are expected.");
+    }
+    if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(1,
+          "Only primitive type keys are accepted but "
+          + parameters[1].getTypeName() + " is passed.");
+    }
+    if (parameters[2].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveObjectInspector.PrimitiveCategory.BYTE,
+            PrimitiveObjectInspector.PrimitiveCategory.SHORT,
+            PrimitiveObjectInspector.PrimitiveCategory.INT,
+            PrimitiveObjectInspector.PrimitiveCategory.LONG).contains(
+                ((PrimitiveTypeInfo) parameters[2]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(2,
+          "Only an integer n is accepted but " + parameters[2].getTypeName() + " is passed.");
+    }
+    if (parameters.length == 4) {
+      GenericUDAFCounterMapArrays.checkSortParameter(parameters[3], 3);
+    }
+    return new GenericUDAFToListTopKEvaluator();
+  }
+
+  /**
+   * GenericUDAFToListTopKEvaluator.
+   *
+   */
+  public static class GenericUDAFToListTopKEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    // For PARTIAL2 and FINAL: ObjectInspectors for the elements of partial aggregations
+    private ObjectInspector inputValueOI;
+    private ObjectInspector inputKeyOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField keysField;
+    private StructField valuesField;
+
+    // ObjectInspectors for the keys and the values kept
+    private ObjectInspector keyOI;
+    private ObjectInspector valueOI;
+
+    // n and the order are set on the map-side, from their constant arguments, and the reduce-side
+    // gets them with the evaluator, which is serialized as a bean in the plan
+    private int n = -1;
+    private boolean desc = true;
+
+    public int getN() {
+      return n;
+    }
+
+    public void setN(int n) {
+      this.n = n;
+    }
+
+    public boolean isDesc() {
+      return desc;
+    }
+
+    public void setDesc(boolean desc) {
+      this.desc = desc;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 3 || parameters.length == 4);
+        inputValueOI = parameters[0];
+        inputKeyOI = parameters[1];
+        if (!(parameters[2] instanceof ConstantObjectInspector)) {
+          throw new UDFArgumentTypeException(2, "n must be a constant.");
+        }
+        long size = PrimitiveObjectInspectorUtils.getLong(
+            ((ConstantObjectInspector) parameters[2]).getWritableConstantValue(),
+            (PrimitiveObjectInspector) parameters[2]);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+          throw new UDFArgumentTypeException(2, "n must be a positive int but " + size
+              + " is passed.");
+        }
+        n = (int) size;
+        desc = parameters.length < 4
+            || DESC.equals(ParallelArrays.getSort(parameters[3], 3, ASC, DESC));
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeOI.getStructFieldRef("keys");
+        valuesField = internalMergeOI.getStructFieldRef("values");
+        inputKeyOI = ((ListObjectInspector) keysField.getFieldObjectInspector())
+            .getListElementObjectInspector();
+        inputValueOI = ((ListObjectInspector) valuesField.getFieldObjectInspector())
+            .getListElementObjectInspector();
+      }
+      keyOI = ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputValueOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("keys", "values"), Arrays.asList(
+                (ObjectInspector) ObjectInspectorFactory.getStandardListObjectInspector(keyOI),
+                ObjectInspectorFactory.getStandardListObjectInspector(valueOI)));
+      }
+      return ObjectInspectorFactory.getStandardListObjectInspector(valueOI);
+    }
+
+    /**
+     * class for storing the kept rows in a heap, the row which would be evicted first at its root.
+     */
+    static class ToListTopKAgg implements AggregationBuffer {
+      Object[] keys = new Object[0];
+      Object[] values = new Object[0];
+      int size;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      ToListTopKAgg myagg = (ToListTopKAgg) agg;
+      Arrays.fill(myagg.keys, null);
+      Arrays.fill(myagg.values, null);
+      myagg.size = 0;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      ToListTopKAgg result = new ToListTopKAgg();
+      reset(result);
+      return result;
+    }
+
+    /** Returns a positive number if the first key ranks before the second one. */
+    private int rank(Object key1, ObjectInspector oi1, Object key2, ObjectInspector oi2) {
+      int comparison = ObjectInspectorUtils.compare(key1, oi1, key2, oi2);
+      return desc ? comparison : -comparison;
+    }
+
+    /**
+     * Offers a row to the heap and returns false if it does not make it, in which case neither
+     * do the rows which rank after it.
+     */
+    private boolean offer(Object key, Object value, ToListTopKAgg myagg) {
+      int size = myagg.size;
+      if (size == n) {
+        if (n == 0 || rank(key, inputKeyOI, myagg.keys[0], keyOI) <= 0) {
+          return false;
+        }
+        myagg.keys[0] = ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI,
+            ObjectInspectorCopyOption.WRITABLE);
+        myagg.values[0] = ObjectInspectorUtils.copyToStandardObject(value, inputValueOI,
+            ObjectInspectorCopyOption.WRITABLE);
+        siftDown(0, myagg);
+        return true;
+      }
+      if (size == myagg.keys.length) {
+        int capacity = (int) Math.min(n, Math.max(4, 2L * size));
+        myagg.keys = Arrays.copyOf(myagg.keys, capacity);
+        myagg.values = Arrays.copyOf(myagg.values, capacity);
+      }
+      myagg.keys[size] = ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      myagg.values[size] = ObjectInspectorUtils.copyToStandardObject(value, inputValueOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      myagg.size = size + 1;
+      siftUp(size, myagg);
+      return true;
+    }
+
+    private void swap(int i, int j, ToListTopKAgg myagg) {
+      Object key = myagg.keys[i];
+      myagg.keys[i] = myagg.keys[j];
+      myagg.keys[j] = key;
+      Object value = myagg.values[i];
+      myagg.values[i] = myagg.values[j];
+      myagg.values[j] = value;
+    }
+
+    private void siftUp(int i, ToListTopKAgg myagg) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (rank(myagg.keys[parent], keyOI, myagg.keys[i], keyOI) <= 0) {
+          return;
+        }
+        swap(i, parent, myagg);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i, ToListTopKAgg myagg) {
+      int size = myagg.size;
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && rank(myagg.keys[child], keyOI, myagg.keys[child + 1], keyOI) > 0) {
+          child++;
+        }
+        if (rank(myagg.keys[i], keyOI, myagg.keys[child], keyOI) <= 0) {
+          return;
+        }
+        swap(i, child, myagg);
+        i = child;
+      }
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 3 || parameters.length == 4);
+      if (parameters[1] != null) {
+        offer(parameters[1], parameters[0], (ToListTopKAgg) agg);
+      }
+    }
+
+    /** Empties the heap into its rows sorted by rank, in place, and returns their number. */
+    private int sort(ToListTopKAgg myagg) {
+      int size = myagg.size;
+      // the root is moved after the heap, which leaves the best rows first
+      while (myagg.size > 1) {
+        swap(0, --myagg.size, myagg);
+        siftDown(0, myagg);
+      }
+      myagg.size = 0;
+      return size;
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      ToListTopKAgg myagg = (ToListTopKAgg) agg;
+      int size = sort(myagg);
+      return new Object[] {Arrays.asList(myagg.keys).subList(0, size),
+          Arrays.asList(myagg.values).subList(0, size)};
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      ToListTopKAgg myagg = (ToListTopKAgg) agg;
+      ListObjectInspector keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+      ListObjectInspector valuesOI = (ListObjectInspector) valuesField.getFieldObjectInspector();
+      Object keys = internalMergeOI.getStructFieldData(partial, keysField);
+      Object values = internalMergeOI.getStructFieldData(partial, valuesField);
+      int length = keysOI.getListLength(keys);
+      // the rows of a partial aggregation are sorted by rank
+      for (int i = 0; i < length; i++) {
+        if (!offer(keysOI.getListElement(keys, i), valuesOI.getListElement(values, i), myagg)) {
+          break;
+        }
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      ToListTopKAgg myagg = (ToListTopKAgg) agg;
+      int size = sort(myagg);
+      return new ArrayList<Object>(Arrays.asList(myagg.values).subList(0, size));
+    }
+
+  }
+}
@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hive.ql.udf.generic;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -26,13 +25,25 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Aggregators;
+import org.apache.hadoop.hive.ql.udf.generic.core.CompactMap;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.StringUtils;
 
 /**
@@ -59,7 +70,18 @@ public class GenericUDAFToMap extends AbstractGenericUDAFResolver {
           + parameter.getTypeName() + " is passed.");
     }
 
-    return new GenericUDAFToMapEvaluator();
+    switch (((PrimitiveTypeInfo) parameter).getPrimitiveCategory()) {
+    case INT:
+      return new GenericUDAFIntToMapEvaluator();
+    case LONG:
+      return new GenericUDAFLongToMapEvaluator();
+    case DOUBLE:
+      return new GenericUDAFDoubleToMapEvaluator();
+    case STRING:
+      return new GenericUDAFStringToMapEvaluator();
+    default:
+      return new GenericUDAFToMapEvaluator();
+    }
   }
 
   /**
@@ -68,47 +90,93 @@ public class GenericUDAFToMap extends AbstractGenericUDAFResolver {
    */
   public static class GenericUDAFToMapEvaluator extends GenericUDAFEvaluator {
     // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
-    private PrimitiveObjectInspector inputKeyOI;
-    private ObjectInspector inputValueOI;
+    protected PrimitiveObjectInspector inputKeyOI;
+    protected ObjectInspector inputValueOI;
 
     // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations 
-    private StandardMapObjectInspector internalMergeOI;
+    protected StandardMapObjectInspector internalMergeOI;
 
     @Override
     public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
-      assert (parameters.length == 1);
-      super.init(m, parameters);
-      if (m == Mode.PARTIAL1) {
-        inputKeyOI = (PrimitiveObjectInspector) parameters[0];
-        inputValueOI = (ObjectInspector) parameters[1];
-        return ObjectInspectorFactory.getStandardMapObjectInspector(
-            (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI), 
-            (ObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputValueOI));
-      } else {
-        if (!(parameters[0] instanceof StandardMapObjectInspector)) {
-          inputKeyOI = (PrimitiveObjectInspector) parameters[0];
-          inputValueOI = (ObjectInspector) parameters[1];
-          return ObjectInspectorFactory.getStandardMapObjectInspector(
-              (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI), 
-              (ObjectInspector) PrimitiveObjectInspectorFactory.writableLongObjectInspector);
-        } else {
-            internalMergeOI = (StandardMapObjectInspector) parameters[0];
-            inputKeyOI = (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector();
-            inputValueOI = (PrimitiveObjectInspector) internalMergeOI.getMapValueObjectInspector();
-            return (StandardMapObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(
-                internalMergeOI);                 
-        }
+      switch (m) {
+      case PARTIAL1:
+      case COMPLETE:
+        assert (parameters.length == 2);
+        return initEntries(m, parameters, (PrimitiveObjectInspector) parameters[0], parameters[1]);
+      default:
+        assert (parameters.length == 1);
+        internalMergeOI = (StandardMapObjectInspector) parameters[0];
+        return initEntries(m, parameters,
+            (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector(),
+            internalMergeOI.getMapValueObjectInspector());
       }
     }
 
+    /**
+     * Initializes the evaluator to map the keys read through keyOI to the values read through
+     * valueOI and returns the ObjectInspector of the map.
+     */
+    protected ObjectInspector initEntries(Mode m, ObjectInspector[] parameters,
+        PrimitiveObjectInspector keyOI, ObjectInspector valueOI) throws HiveException {
+      super.init(m, parameters);
+      inputKeyOI = keyOI;
+      inputValueOI = valueOI;
+      // the values are kept serialized whatever the mode: partial aggregations hand them over to
+      // the shuffle as LazyBinary objects while final ones (FINAL or COMPLETE) deserialize them
+      // into writables, once, when the map is output
+      return ObjectInspectorFactory.getStandardMapObjectInspector(
+          getStandardKeyObjectInspector(),
+          m == Mode.PARTIAL1 || m == Mode.PARTIAL2
+              ? SlabStore.getLazyObjectInspector(inputValueOI)
+              : ObjectInspectorUtils.getStandardObjectInspector(inputValueOI,
+                  ObjectInspectorCopyOption.WRITABLE));
+    }
+
+    /** Returns the ObjectInspector of the keys stored in the map. */
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI);
+    }
+
+    // Final sizes of the recent groups, used to presize the buffers of the next ones
+    protected final GroupSizeEstimator groupSizes =
+        new GroupSizeEstimator(CompactMap.INLINE_CAPACITY);
+
+    // the aggregation itself, which the evaluators adapt to Hive: the values of its entries are
+    // the handles of the values in the store
+    protected static final Aggregators.ToMap<Object,Object> ENTRIES = Aggregators.toMap();
+
     /** class for storing the current string builder. */
     static class ToMapAgg implements AggregationBuffer {
+      // maps the keys to the handles of their values in the store
       Map<Object,Object> container;
+      SlabStore values;
+    }
+
+    protected void resetValues(ToMapAgg myagg) {
+      if (myagg.values != null) {
+        myagg.values.release();
+      } else {
+        myagg.values = new SlabStore(SlabStore.OFF_HEAP);
+      }
+    }
+
+    /**
+     * Returns the entries of the map with their values deserialized, or as LazyBinary objects
+     * valid until the next entry is read if lazy is set.
+     */
+    protected Map<Object,Object> getEntries(ToMapAgg myagg, boolean lazy) {
+      return new SlabStore.ValueMap(myagg.container, myagg.values, lazy);
     }
 
     @Override
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((ToMapAgg) agg).container = new HashMap<Object,Object>(144);
+      ToMapAgg myagg = (ToMapAgg) agg;
+      resetValues(myagg);
+      if (myagg.container != null && !groupSizes.isOversized(myagg.container.size())) {
+        myagg.container.clear();
+      } else {
+        myagg.container = ENTRIES.newState(groupSizes.estimate());
+      }
     }
 
     @Override
@@ -118,10 +186,28 @@ public class GenericUDAFToMap extends AbstractGenericUDAFResolver {
       return result;
     }
 
+    /**
+     * Stores the value of a key and returns its handle, the bytes of the previous value of the key
+     * being reused when the new value fits in them.
+     */
+    protected Long storeValue(ToMapAgg myagg, Object previousHandle, Object value) {
+      return previousHandle == null
+          ? myagg.values.add(value, inputValueOI)
+          : myagg.values.replace((Long) previousHandle, value, inputValueOI);
+    }
+
+    /** Compacts the values once the replaced ones take more room than the live ones. */
+    protected void compactValues(ToMapAgg myagg) {
+      if (myagg.values.isFragmented()) {
+        myagg.values.compact(myagg.container);
+      }
+    }
+
     protected void putIntoMap(Object key, Object value, ToMapAgg myagg) {
-      Object pKeyCopy = ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI);
-      Object pValueCopy = ObjectInspectorUtils.copyToStandardObject(value, inputValueOI);
-      myagg.container.put(pKeyCopy, pValueCopy);
+      Object pKeyCopy = StringCanonicalizer.copyToStandardObject(key, inputKeyOI);
+      ENTRIES.put(myagg.container, pKeyCopy,
+          storeValue(myagg, myagg.container.get(pKeyCopy), value));
+      compactValues(myagg);
     }
 
     boolean warned = false;
@@ -149,7 +235,9 @@ public class GenericUDAFToMap extends AbstractGenericUDAFResolver {
     // Map-side
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
-      return terminate(agg);
+      ToMapAgg myagg = (ToMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      return getEntries(myagg, true);
     }
 
     // Reduce-side
@@ -169,10 +257,161 @@ public class GenericUDAFToMap extends AbstractGenericUDAFResolver {
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       ToMapAgg myagg = (ToMapAgg) agg;
+      groupSizes.add(myagg.container.size());
       if (myagg.container.size() < 0) {
         return null;
       }
-      return myagg.container;
+      return getEntries(myagg, false);
+    }
+
+  }
+
+  /**
+   * GenericUDAFIntToMapEvaluator maps int keys, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFIntToMapEvaluator extends GenericUDAFToMapEvaluator {
+    private IntObjectInspector keyOI;
+    private final IntWritable probe = new IntWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (IntObjectInspector) inputKeyOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, Object value, ToMapAgg myagg) {
+      probe.set(keyOI.get(key));
+      Object previous = myagg.container.get(probe);
+      Long handle = storeValue(myagg, previous, value);
+      if (previous != null) {
+        // the key already in the map is kept
+        ENTRIES.put(myagg.container, probe, handle);
+      } else {
+        ENTRIES.put(myagg.container, new IntWritable(probe.get()), handle);
+      }
+      compactValues(myagg);
+    }
+
+  }
+
+  /**
+   * GenericUDAFLongToMapEvaluator maps long keys, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFLongToMapEvaluator extends GenericUDAFToMapEvaluator {
+    private LongObjectInspector keyOI;
+    private final LongWritable probe = new LongWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (LongObjectInspector) inputKeyOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, Object value, ToMapAgg myagg) {
+      probe.set(keyOI.get(key));
+      Object previous = myagg.container.get(probe);
+      Long handle = storeValue(myagg, previous, value);
+      if (previous != null) {
+        // the key already in the map is kept
+        ENTRIES.put(myagg.container, probe, handle);
+      } else {
+        ENTRIES.put(myagg.container, new LongWritable(probe.get()), handle);
+      }
+      compactValues(myagg);
+    }
+
+  }
+
+  /**
+   * GenericUDAFDoubleToMapEvaluator maps double keys, read through their concrete
+   * ObjectInspector and looked up with a reused writable.
+   */
+  public static class GenericUDAFDoubleToMapEvaluator extends GenericUDAFToMapEvaluator {
+    private DoubleObjectInspector keyOI;
+    private final DoubleWritable probe = new DoubleWritable();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (DoubleObjectInspector) inputKeyOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, Object value, ToMapAgg myagg) {
+      probe.set(keyOI.get(key));
+      Object previous = myagg.container.get(probe);
+      Long handle = storeValue(myagg, previous, value);
+      if (previous != null) {
+        // the key already in the map is kept
+        ENTRIES.put(myagg.container, probe, handle);
+      } else {
+        ENTRIES.put(myagg.container, new DoubleWritable(probe.get()), handle);
+      }
+      compactValues(myagg);
+    }
+
+  }
+
+  /**
+   * GenericUDAFStringToMapEvaluator maps string keys, looked up through their Text form without
+   * any copy unless they have never been seen before.
+   */
+  public static class GenericUDAFStringToMapEvaluator extends GenericUDAFToMapEvaluator {
+    private StringObjectInspector keyOI;
+    private final Text probe = new Text();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector result = super.init(m, parameters);
+      keyOI = (StringObjectInspector) inputKeyOI;
+      return result;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    @Override
+    protected void putIntoMap(Object key, Object value, ToMapAgg myagg) {
+      Text text;
+      if (keyOI.preferWritable()) {
+        text = keyOI.getPrimitiveWritableObject(key);
+      } else {
+        probe.set(keyOI.getPrimitiveJavaObject(key));
+        text = probe;
+      }
+      Object previous = myagg.container.get(text);
+      Long handle = storeValue(myagg, previous, value);
+      if (previous != null) {
+        // the key already in the map is kept
+        ENTRIES.put(myagg.container, text, handle);
+      } else {
+        ENTRIES.put(myagg.container, StringCanonicalizer.copy(key, keyOI), handle);
+      }
+      compactValues(myagg);
     }
 
   }
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * GenericUDAFToMapArrays.
+ * @author Francois Rousseau
+ */
+@Description(name = "to_map_arrays",
+             value = "_FUNC_(col1, col2 [, sort]) - Returns the keys from col1 and the values from"
+                 + " col2 as struct<keys:array,values:array>, sorted by 'key' if asked")
+public class GenericUDAFToMapArrays extends GenericUDAFToMap {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 2 && parameters.length != 3) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Two or three arguments are expected.");
+    }
+    if (parameters.length == 3) {
+      GenericUDAFCounterMapArrays.checkSortParameter(parameters[2], 2);
+    }
+    super.getEvaluator(new TypeInfo[] {parameters[0], parameters[1]});
+    return new GenericUDAFToMapArraysEvaluator();
+  }
+
+  /**
+   * GenericUDAFToMapArraysEvaluator.
+   *
+   */
+  public static class GenericUDAFToMapArraysEvaluator extends GenericUDAFToMapEvaluator {
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeArraysOI;
+    private StructField keysField;
+    private StructField valuesField;
+    private ListObjectInspector keysOI;
+    private ListObjectInspector valuesOI;
+
+    // the sort order is set on the map-side, from its constant argument, and the reduce-side
+    // gets it with the evaluator, which is serialized as a bean in the plan
+    private String sort;
+
+    public String getSort() {
+      return sort;
+    }
+
+    public void setSort(String sort) {
+      this.sort = sort;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        initEntries(m, parameters, (PrimitiveObjectInspector) parameters[0], parameters[1]);
+        sort = parameters.length > 2
+            ? ParallelArrays.getSort(parameters[2], 2, ParallelArrays.SORT_BY_KEY) : null;
+      } else {
+        internalMergeArraysOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeArraysOI.getStructFieldRef("keys");
+        valuesField = internalMergeArraysOI.getStructFieldRef("values");
+        keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+        valuesOI = (ListObjectInspector) valuesField.getFieldObjectInspector();
+        // the entries of the partial aggregations are put like original data
+        initEntries(m, parameters,
+            (PrimitiveObjectInspector) keysOI.getListElementObjectInspector(),
+            valuesOI.getListElementObjectInspector());
+      }
+      return ParallelArrays.getObjectInspector(
+          "keys", ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI),
+          "values", ObjectInspectorUtils.getStandardObjectInspector(inputValueOI,
+              ObjectInspectorCopyOption.WRITABLE));
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      ToMapAgg myagg = (ToMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      return ParallelArrays.fromMap(getEntries(myagg, false), null);
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        ToMapAgg myagg = (ToMapAgg) agg;
+        Object keys = internalMergeArraysOI.getStructFieldData(partial, keysField);
+        Object values = internalMergeArraysOI.getStructFieldData(partial, valuesField);
+        int length = keysOI.getListLength(keys);
+        for (int i = 0; i < length; i++) {
+          putIntoMap(keysOI.getListElement(keys, i), valuesOI.getListElement(values, i), myagg);
+        }
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      ToMapAgg myagg = (ToMapAgg) agg;
+      groupSizes.add(myagg.container.size());
+      return ParallelArrays.fromMap(getEntries(myagg, false),
+          sort == null ? null : ParallelArrays.BY_KEY);
+    }
+
+  }
+}
@@ -0,0 +1,332 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * GenericUDAFToMapLatest maps each key to the value of its row with the highest version, whatever
+ * the order in which the rows and the partial aggregations are read: the version of each key is
+ * kept next to its value and a value only replaces another one with a lower version. Among rows
+ * with the same version, the greatest value is kept when values can be compared.
+ *
+ * A partial aggregation maps each key to the struct of its value and version, so that it is merged
+ * in a single pass over its entries. Keys are looked up as writables, reused for the types to_map
+ * looks up without copying, and only copied when they are added to the map.
+ * @author Francois Rousseau
+ */
+@Description(name = "to_map_latest",
+             value = "_FUNC_(col1, col2, version) - Returns a HashMap with keys from col1 and"
+                 + " values from col2, keeping for each key the value with the highest version")
+public class GenericUDAFToMapLatest extends GenericUDAFToMap {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 3) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly three arguments are expected.");
+    }
+    if (parameters[2].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(2,
+          "Only primitive type versions are accepted but "
+          + parameters[2].getTypeName() + " is passed.");
+    }
+    super.getEvaluator(new TypeInfo[] {parameters[0], parameters[1]});
+    return new GenericUDAFToMapLatestEvaluator();
+  }
+
+  /**
+   * GenericUDAFToMapLatestEvaluator.
+   *
+   */
+  public static class GenericUDAFToMapLatestEvaluator extends GenericUDAFToMapEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspector for original data
+    // For PARTIAL2 and FINAL: ObjectInspector for the versions of partial aggregations
+    private PrimitiveObjectInspector inputVersionOI;
+    private ObjectInspector versionOI;
+    private boolean compareValues;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for the entries of partial aggregations
+    private StructObjectInspector internalMergeLatestOI;
+    private StructField valueField;
+    private StructField versionField;
+
+    // the keys are looked up through these writables when their type is one of theirs
+    private boolean probeKeys;
+    private final IntWritable intProbe = new IntWritable();
+    private final LongWritable longProbe = new LongWritable();
+    private final DoubleWritable doubleProbe = new DoubleWritable();
+    private final Text textProbe = new Text();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      ObjectInspector mapOI;
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 3);
+        mapOI = initEntries(m, parameters, (PrimitiveObjectInspector) parameters[0],
+            parameters[1]);
+        inputVersionOI = (PrimitiveObjectInspector) parameters[2];
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StandardMapObjectInspector) parameters[0];
+        internalMergeLatestOI =
+            (StructObjectInspector) internalMergeOI.getMapValueObjectInspector();
+        valueField = internalMergeLatestOI.getStructFieldRef("value");
+        versionField = internalMergeLatestOI.getStructFieldRef("version");
+        mapOI = initEntries(m, parameters,
+            (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector(),
+            valueField.getFieldObjectInspector());
+        inputVersionOI = (PrimitiveObjectInspector) versionField.getFieldObjectInspector();
+      }
+      versionOI = ObjectInspectorUtils.getStandardObjectInspector(inputVersionOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      compareValues = ObjectInspectorUtils.compareSupported(inputValueOI);
+      switch (inputKeyOI.getPrimitiveCategory()) {
+      case INT:
+      case LONG:
+      case DOUBLE:
+      case STRING:
+        probeKeys = true;
+        break;
+      default:
+        probeKeys = false;
+      }
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardMapObjectInspector(
+            getStandardKeyObjectInspector(),
+            ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("value", "version"),
+                Arrays.asList(((MapObjectInspector) mapOI).getMapValueObjectInspector(),
+                    versionOI)));
+      }
+      return mapOI;
+    }
+
+    @Override
+    protected ObjectInspector getStandardKeyObjectInspector() {
+      return ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI,
+          ObjectInspectorCopyOption.WRITABLE);
+    }
+
+    /** class for storing the map and the version of each of its keys. */
+    static class ToMapLatestAgg extends ToMapAgg {
+      Map<Object,Object> versions;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      super.reset(agg);
+      ToMapLatestAgg myagg = (ToMapLatestAgg) agg;
+      if (myagg.versions != null && !groupSizes.isOversized(myagg.versions.size())) {
+        myagg.versions.clear();
+      } else {
+        myagg.versions = ENTRIES.newState(groupSizes.estimate());
+      }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      ToMapLatestAgg result = new ToMapLatestAgg();
+      reset(result);
+      return result;
+    }
+
+    /** Returns a copy of the key, as a writable. */
+    private Object copyKey(Object key) {
+      if (inputKeyOI.getPrimitiveCategory() == PrimitiveCategory.STRING) {
+        return StringCanonicalizer.copy(key, (StringObjectInspector) inputKeyOI);
+      }
+      return ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI,
+          ObjectInspectorCopyOption.WRITABLE);
+    }
+
+    /**
+     * Returns the key as a writable to look it up with: one of the reused probes if probeKeys is
+     * set, a copy otherwise.
+     */
+    private Object probe(Object key) {
+      switch (inputKeyOI.getPrimitiveCategory()) {
+      case INT:
+        intProbe.set(((IntObjectInspector) inputKeyOI).get(key));
+        return intProbe;
+      case LONG:
+        longProbe.set(((LongObjectInspector) inputKeyOI).get(key));
+        return longProbe;
+      case DOUBLE:
+        doubleProbe.set(((DoubleObjectInspector) inputKeyOI).get(key));
+        return doubleProbe;
+      case STRING:
+        StringObjectInspector keyOI = (StringObjectInspector) inputKeyOI;
+        if (keyOI.preferWritable()) {
+          return keyOI.getPrimitiveWritableObject(key);
+        }
+        textProbe.set(keyOI.getPrimitiveJavaObject(key));
+        return textProbe;
+      default:
+        return copyKey(key);
+      }
+    }
+
+    /**
+     * Puts the value into the map unless its key is already mapped to a value with a higher
+     * version, or with the same version and a greater value.
+     */
+    private void putIfLatest(Object key, Object value, Object version, ToMapLatestAgg myagg) {
+      Object pKey = probe(key);
+      Object kept = myagg.versions.get(pKey);
+      if (kept != null) {
+        int comparison = ObjectInspectorUtils.compare(version, inputVersionOI, kept, versionOI);
+        if (comparison < 0) {
+          return;
+        }
+        if (comparison == 0) {
+          if (!compareValues) {
+            return;
+          }
+          Object handle = myagg.container.get(pKey);
+          if (ObjectInspectorUtils.compare(value, inputValueOI,
+              myagg.values.getLazy((Long) handle), myagg.values.getLazyObjectInspector()) <= 0) {
+            return;
+          }
+        }
+      } else if (probeKeys) {
+        // the key is new, the probe is copied (otherwise the key already in the map is kept)
+        pKey = copyKey(key);
+      }
+      ENTRIES.put(myagg.container, pKey, storeValue(myagg, myagg.container.get(pKey), value));
+      ENTRIES.put(myagg.versions, pKey, ObjectInspectorUtils.copyToStandardObject(version,
+          inputVersionOI, ObjectInspectorCopyOption.WRITABLE));
+      compactValues(myagg);
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 3);
+      if (parameters[0] != null && parameters[2] != null) {
+        putIfLatest(parameters[0], parameters[1], parameters[2], (ToMapLatestAgg) agg);
+      }
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      ToMapLatestAgg myagg = (ToMapLatestAgg) agg;
+      groupSizes.add(myagg.container.size());
+      return new LatestMap(getEntries(myagg, true), myagg.versions);
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      ToMapLatestAgg myagg = (ToMapLatestAgg) agg;
+      for (Map.Entry<?,?> entry: internalMergeOI.getMap(partial).entrySet()) {
+        Object latest = entry.getValue();
+        Object version = internalMergeLatestOI.getStructFieldData(latest, versionField);
+        if (entry.getKey() != null && version != null) {
+          putIfLatest(entry.getKey(), internalMergeLatestOI.getStructFieldData(latest, valueField),
+              version, myagg);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * LatestMap shows the values of a partial aggregation, valid until the next entry is read,
+   * together with their versions as the struct of the entries of the partial map.
+   */
+  static final class LatestMap extends AbstractMap<Object,Object> {
+    private final Map<Object,Object> values;
+    private final Map<Object,Object> versions;
+
+    LatestMap(Map<Object,Object> values, Map<Object,Object> versions) {
+      this.values = values;
+      this.versions = versions;
+    }
+
+    @Override
+    public int size() {
+      return values.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Object,Object>> entrySet() {
+      return new AbstractSet<Map.Entry<Object,Object>>() {
+        @Override
+        public Iterator<Map.Entry<Object,Object>> iterator() {
+          final Iterator<Map.Entry<Object,Object>> it = values.entrySet().iterator();
+          return new Iterator<Map.Entry<Object,Object>>() {
+            public boolean hasNext() {
+              return it.hasNext();
+            }
+
+            public Map.Entry<Object,Object> next() {
+              Map.Entry<Object,Object> entry = it.next();
+              Object key = entry.getKey();
+              return new AbstractMap.SimpleImmutableEntry<Object,Object>(key,
+                  new Object[] {entry.getValue(), versions.get(key)});
+            }
+
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return values.size();
+        }
+      };
+    }
+  }
+
+}
@@ -41,7 +41,13 @@ public class GenericUDAFToMapOrdered extends GenericUDAFToMap {
   public static class GenericUDAFToMapOrderedEvaluator extends GenericUDAFToMapEvaluator {
 
     public void reset(AggregationBuffer agg) throws HiveException {
-      ((ToMapAgg) agg).container = new TreeMap<Object,Object>();
+      ToMapAgg myagg = (ToMapAgg) agg;
+      resetValues(myagg);
+      if (myagg.container != null) {
+        myagg.container.clear();
+      } else {
+        myagg.container = new TreeMap<Object,Object>();
+      }
     }
 
   }
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.core.Counter;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDAFTransitionCounts counts the transitions between the consecutive states of a group,
+ * ordered by timestamp, without building the sequence of states.
+ *
+ * A partial aggregation is made of the transitions it counted plus its first and last events
+ * (the boundaries of its segment of the sequence). Each event read is kept as a segment of its
+ * own, and the segments are only stitched together, by timestamp, when the partial aggregation or
+ * the group is output, so that neither the order in which the events are read nor the order in
+ * which the partial aggregations are merged matters. The events of a split are always counted
+ * exactly; the segments of different splits are exact when their time ranges do not overlap.
+ * @author Francois Rousseau
+ */
+@Description(name = "transition_counts",
+             value = "_FUNC_(ts, state) - Returns the counters of the transitions between the"
+                 + " consecutive states ordered by ts as"
+                 + " struct<keys:array<struct<col1:from,col2:to>>,counts:array<bigint>>")
+public class GenericUDAFTransitionCounts extends AbstractGenericUDAFResolver {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Exactly two arguments are expected.");
+    }
+    GenericUDAFFunnel.checkTimestampParameter(parameters[0], 0);
+    if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !CompositeKeyPacker.isSupported(
+            ((PrimitiveTypeInfo) parameters[1]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(1,
+          "Only boolean, numeric, string, timestamp or binary type states are accepted but "
+          + parameters[1].getTypeName() + " is passed.");
+    }
+    return new GenericUDAFTransitionCountsEvaluator();
+  }
+
+  /**
+   * GenericUDAFTransitionCountsEvaluator.
+   *
+   */
+  public static class GenericUDAFTransitionCountsEvaluator
+      extends GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private PrimitiveObjectInspector tsOI;
+    private PrimitiveObjectInspector stateOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private StructObjectInspector internalMergeOI;
+    private StructField keysField;
+    private StructField countsField;
+    private StructField firstTsField;
+    private StructField firstStatesField;
+    private StructField lastTsField;
+    private StructField lastStatesField;
+
+    // the states kept as boundaries are writables
+    private PrimitiveObjectInspector writableStateOI;
+    private CompositeKeyPacker packer;
+    private final Object[] pair = new Object[2];
+    private final PrimitiveObjectInspector[] pairOIs = new PrimitiveObjectInspector[2];
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      initMode(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        assert (parameters.length == 2);
+        tsOI = (PrimitiveObjectInspector) parameters[0];
+        stateOI = (PrimitiveObjectInspector) parameters[1];
+      } else {
+        assert (parameters.length == 1);
+        internalMergeOI = (StructObjectInspector) parameters[0];
+        keysField = internalMergeOI.getStructFieldRef("keys");
+        countsField = internalMergeOI.getStructFieldRef("counts");
+        firstTsField = internalMergeOI.getStructFieldRef("first_ts");
+        firstStatesField = internalMergeOI.getStructFieldRef("first_states");
+        lastTsField = internalMergeOI.getStructFieldRef("last_ts");
+        lastStatesField = internalMergeOI.getStructFieldRef("last_states");
+        stateOI = (PrimitiveObjectInspector) ((ListObjectInspector)
+            firstStatesField.getFieldObjectInspector()).getListElementObjectInspector();
+      }
+      writableStateOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+          stateOI.getPrimitiveCategory());
+      packer = new CompositeKeyPacker(new PrimitiveObjectInspector[] {stateOI, stateOI});
+
+      ObjectInspector longOI = PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+      List<String> names = new ArrayList<String>(Arrays.asList("keys", "counts"));
+      List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+          packer.getStandardStructObjectInspector()));
+      fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(longOI));
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        names.addAll(Arrays.asList("first_ts", "first_states", "last_ts", "last_states"));
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(longOI));
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(writableStateOI));
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(longOI));
+        fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(writableStateOI));
+      }
+      return ObjectInspectorFactory.getStandardStructObjectInspector(names, fieldOIs);
+    }
+
+    /** class for storing the transitions and the boundaries of the segments. */
+    static class TransitionCountsAgg extends CounterMapAgg {
+      long[] firstTs = new long[1];
+      Object[] firstStates = new Object[1];
+      long[] lastTs = new long[1];
+      Object[] lastStates = new Object[1];
+      int segments;
+
+      void addSegment(long first, Object firstState, long last, Object lastState) {
+        if (segments == firstTs.length) {
+          int capacity = 2 * segments;
+          firstTs = Arrays.copyOf(firstTs, capacity);
+          firstStates = Arrays.copyOf(firstStates, capacity);
+          lastTs = Arrays.copyOf(lastTs, capacity);
+          lastStates = Arrays.copyOf(lastStates, capacity);
+        }
+        firstTs[segments] = first;
+        firstStates[segments] = firstState;
+        lastTs[segments] = last;
+        lastStates[segments] = lastState;
+        segments++;
+      }
+
+      void clearSegments() {
+        Arrays.fill(firstStates, 0, segments, null);
+        Arrays.fill(lastStates, 0, segments, null);
+        segments = 0;
+      }
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      super.reset(agg);
+      ((TransitionCountsAgg) agg).clearSegments();
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      TransitionCountsAgg result = new TransitionCountsAgg();
+      reset(result);
+      return result;
+    }
+
+    private void putTransitionIntoMap(Object from, PrimitiveObjectInspector fromOI, Object to,
+        PrimitiveObjectInspector toOI, long count, CounterMapAgg myagg) {
+      pair[0] = from;
+      pair[1] = to;
+      pairOIs[0] = fromOI;
+      pairOIs[1] = toOI;
+      Object pKey = packer.pack(pair, pairOIs);
+      if (!COUNTERS.increment(myagg.container, pKey, count)) {
+        COUNTERS.put(myagg.container, packer.copy(pKey), count);
+      }
+    }
+
+    private Object copyState(Object state, PrimitiveObjectInspector oi) {
+      return ObjectInspectorUtils.copyToStandardObject(state, oi,
+          ObjectInspectorCopyOption.WRITABLE);
+    }
+
+    // Map-side
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      assert (parameters.length == 2);
+      if (parameters[0] == null) {
+        return;
+      }
+      TransitionCountsAgg myagg = (TransitionCountsAgg) agg;
+      long ts = PrimitiveObjectInspectorUtils.getLong(parameters[0], tsOI);
+      Object state = parameters[1];
+      // the events are not read by timestamp, so each one is a segment until they are stitched
+      Object copy = copyState(state, stateOI);
+      myagg.addSegment(ts, copy, ts, copy);
+    }
+
+    /**
+     * Always fails: a transition depends on the events around it, which the counters do not keep,
+     * so an event cannot be taken back out of them.
+     */
+    @Override
+    public void remove(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      throw new HiveException("transition_counts does not support removing events.");
+    }
+
+    private List<Object> getTransitions(TransitionCountsAgg myagg) {
+      groupSizes.add(myagg.container.size());
+      List<Object> keys = new ArrayList<Object>(myagg.container.size());
+      List<Object> counts = new ArrayList<Object>(myagg.container.size());
+      for (Map.Entry<Object,Counter> entry: myagg.container.entrySet()) {
+        keys.add(packer.unpack(entry.getKey()));
+        counts.add(new LongWritable(entry.getValue().get()));
+      }
+      return new ArrayList<Object>(Arrays.asList((Object) keys, counts));
+    }
+
+    // Map-side
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      TransitionCountsAgg myagg = (TransitionCountsAgg) agg;
+      stitchSegments(myagg);
+      List<Object> result = getTransitions(myagg);
+      List<Object> firstTs = new ArrayList<Object>(myagg.segments);
+      List<Object> lastTs = new ArrayList<Object>(myagg.segments);
+      for (int i = 0; i < myagg.segments; i++) {
+        firstTs.add(new LongWritable(myagg.firstTs[i]));
+        lastTs.add(new LongWritable(myagg.lastTs[i]));
+      }
+      result.add(firstTs);
+      result.add(Arrays.asList(myagg.firstStates).subList(0, myagg.segments));
+      result.add(lastTs);
+      result.add(Arrays.asList(myagg.lastStates).subList(0, myagg.segments));
+      return result;
+    }
+
+    // Reduce-side
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      TransitionCountsAgg myagg = (TransitionCountsAgg) agg;
+      ListObjectInspector keysOI = (ListObjectInspector) keysField.getFieldObjectInspector();
+      ListObjectInspector countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+      StructObjectInspector keyOI = (StructObjectInspector) keysOI.getListElementObjectInspector();
+      List<? extends StructField> keyFields = keyOI.getAllStructFieldRefs();
+      PrimitiveObjectInspector fromOI =
+          (PrimitiveObjectInspector) keyFields.get(0).getFieldObjectInspector();
+      PrimitiveObjectInspector toOI =
+          (PrimitiveObjectInspector) keyFields.get(1).getFieldObjectInspector();
+      PrimitiveObjectInspector countOI =
+          (PrimitiveObjectInspector) countsOI.getListElementObjectInspector();
+      Object keys = internalMergeOI.getStructFieldData(partial, keysField);
+      Object counts = internalMergeOI.getStructFieldData(partial, countsField);
+      int length = keysOI.getListLength(keys);
+      for (int i = 0; i < length; i++) {
+        Object key = keysOI.getListElement(keys, i);
+        putTransitionIntoMap(keyOI.getStructFieldData(key, keyFields.get(0)), fromOI,
+            keyOI.getStructFieldData(key, keyFields.get(1)), toOI,
+            PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), countOI),
+            myagg);
+      }
+
+      ListObjectInspector firstTsOI = (ListObjectInspector) firstTsField.getFieldObjectInspector();
+      ListObjectInspector firstStatesOI =
+          (ListObjectInspector) firstStatesField.getFieldObjectInspector();
+      ListObjectInspector lastTsOI = (ListObjectInspector) lastTsField.getFieldObjectInspector();
+      ListObjectInspector lastStatesOI =
+          (ListObjectInspector) lastStatesField.getFieldObjectInspector();
+      PrimitiveObjectInspector longOI =
+          (PrimitiveObjectInspector) firstTsOI.getListElementObjectInspector();
+      Object firstTs = internalMergeOI.getStructFieldData(partial, firstTsField);
+      Object firstStates = internalMergeOI.getStructFieldData(partial, firstStatesField);
+      Object lastTs = internalMergeOI.getStructFieldData(partial, lastTsField);
+      Object lastStates = internalMergeOI.getStructFieldData(partial, lastStatesField);
+      int segments = firstTsOI.getListLength(firstTs);
+      for (int i = 0; i < segments; i++) {
+        myagg.addSegment(
+            PrimitiveObjectInspectorUtils.getLong(firstTsOI.getListElement(firstTs, i), longOI),
+            copyState(firstStatesOI.getListElement(firstStates, i), stateOI),
+            PrimitiveObjectInspectorUtils.getLong(lastTsOI.getListElement(lastTs, i), longOI),
+            copyState(lastStatesOI.getListElement(lastStates, i), stateOI));
+      }
+    }
+
+    /**
+     * Stitches the segments by timestamp into a single one, counting the transitions between
+     * consecutive segments. The sort is stable, so events with the same timestamp are chained in
+     * the order they were read.
+     */
+    private void stitchSegments(final TransitionCountsAgg myagg) {
+      if (myagg.segments > 1) {
+        Integer[] order = new Integer[myagg.segments];
+        for (int i = 0; i < order.length; i++) {
+          order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+          public int compare(Integer a, Integer b) {
+            if (myagg.firstTs[a] != myagg.firstTs[b]) {
+              return myagg.firstTs[a] < myagg.firstTs[b] ? -1 : 1;
+            }
+            if (myagg.lastTs[a] != myagg.lastTs[b]) {
+              return myagg.lastTs[a] < myagg.lastTs[b] ? -1 : 1;
+            }
+            return 0;
+          }
+        });
+        for (int i = 1; i < order.length; i++) {
+          putTransitionIntoMap(myagg.lastStates[order[i - 1]], writableStateOI,
+              myagg.firstStates[order[i]], writableStateOI, 1L, myagg);
+        }
+        int first = order[0];
+        int last = order[order.length - 1];
+        long firstTs = myagg.firstTs[first];
+        Object firstState = myagg.firstStates[first];
+        long lastTs = myagg.lastTs[last];
+        Object lastState = myagg.lastStates[last];
+        myagg.clearSegments();
+        myagg.addSegment(firstTs, firstState, lastTs, lastState);
+      }
+    }
+
+    // Reduce-side
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      TransitionCountsAgg myagg = (TransitionCountsAgg) agg;
+      stitchSegments(myagg);
+      return getTransitions(myagg);
+    }
+
+  }
+}
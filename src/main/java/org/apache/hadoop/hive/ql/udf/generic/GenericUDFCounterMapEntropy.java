@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * GenericUDFCounterMapEntropy returns the Shannon entropy, in bits, of the distribution of the
+ * keys of a counter map: log2(total) - sum(count * log2(count)) / total, computed in a single
+ * pass over the map.
+ * @author Francois Rousseau
+ */
+@Description(name = "counter_map_entropy",
+             value = "_FUNC_(counters) - Returns the entropy in bits of the counts of the counter"
+                 + " map")
+public class GenericUDFCounterMapEntropy extends GenericUDF {
+
+  private static final double LN_2 = Math.log(2.0);
+
+  private CounterMapEntries entries;
+  private final DoubleWritable result = new DoubleWritable();
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 1) {
+      throw new UDFArgumentLengthException("Exactly one argument is expected.");
+    }
+    entries = CounterMapEntries.get(arguments[0], 0, false);
+    return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    int size = entries.read(arguments[0].get());
+    if (size == 0) {
+      return null;
+    }
+    long total = 0L;
+    double sum = 0.0;
+    for (int i = 0; i < size; i++) {
+      long count = entries.counts[i];
+      total += count;
+      sum += count * Math.log(count);
+    }
+    result.set(Math.max(0.0, (Math.log(total) - sum / total) / LN_2));
+    return result;
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    return "counter_map_entropy(" + children[0] + ")";
+  }
+
+}
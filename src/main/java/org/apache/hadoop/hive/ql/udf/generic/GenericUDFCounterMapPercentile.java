@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * GenericUDFCounterMapPercentile returns the weighted percentile of the keys of a counter map,
+ * as if each key was repeated as many times as its count: the smallest key such that at least
+ * a fraction p of the total count is at or below it. The null key, which has no rank, is
+ * ignored. The key is found by a weighted quickselect (see CounterMapEntries), in linear
+ * expected time, without exploding nor sorting the map.
+ * @author Francois Rousseau
+ */
+@Description(name = "counter_map_percentile",
+             value = "_FUNC_(counters, p) - Returns the key of the counter map at the weighted"
+                 + " percentile p, between 0 and 1, e.g. 0.5 for the median",
+             extended = "The count of the null key is ignored.")
+public class GenericUDFCounterMapPercentile extends GenericUDF {
+
+  private CounterMapEntries entries;
+  private PrimitiveObjectInspector percentileOI;
+  private ObjectInspector keyOI;
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 2) {
+      throw new UDFArgumentLengthException("Exactly two arguments are expected.");
+    }
+    entries = CounterMapEntries.get(arguments[0], 0, true);
+    if (arguments[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveCategory.BYTE, PrimitiveCategory.SHORT,
+            PrimitiveCategory.INT, PrimitiveCategory.LONG, PrimitiveCategory.FLOAT,
+            PrimitiveCategory.DOUBLE).contains(
+                ((PrimitiveObjectInspector) arguments[1]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(1,
+          "Only a numeric percentile is accepted but " + arguments[1].getTypeName()
+          + " is passed.");
+    }
+    percentileOI = (PrimitiveObjectInspector) arguments[1];
+    keyOI = entries.getKeyObjectInspector();
+    return ObjectInspectorUtils.getStandardObjectInspector(keyOI,
+        ObjectInspectorCopyOption.WRITABLE);
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    Object percentile = arguments[1].get();
+    if (percentile == null || entries.read(arguments[0].get()) == 0) {
+      return null;
+    }
+    double p = PrimitiveObjectInspectorUtils.getDouble(percentile, percentileOI);
+    if (!(p >= 0.0 && p <= 1.0)) {
+      throw new HiveException("The percentile must be between 0 and 1 but " + p
+          + " is passed.");
+    }
+    long total = entries.total();
+    long rank = Math.max(1L, Math.min(total, (long) Math.ceil(p * total)));
+    return ObjectInspectorUtils.copyToStandardObject(
+        entries.keys[entries.selectByCount(rank)], keyOI, ObjectInspectorCopyOption.WRITABLE);
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    return "counter_map_percentile(" + children[0] + ", " + children[1] + ")";
+  }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDFCounterMapTopN returns the n entries of a counter map with the greatest counts, as
+ * struct<keys:array,counts:array<bigint>> sorted by descending count and then by key, like
+ * counter_map_arrays sorted by 'count', the null key coming before the others. The n entries
+ * are first moved in front by quickselect (see CounterMapEntries) and only them are sorted, in
+ * O(size + n log n) expected time.
+ * @author Francois Rousseau
+ */
+@Description(name = "counter_map_topn",
+             value = "_FUNC_(counters, n) - Returns the n keys of the counter map with the"
+                 + " greatest counts as struct<keys:array,counts:array<bigint>>")
+public class GenericUDFCounterMapTopN extends GenericUDF {
+
+  private CounterMapEntries entries;
+  private PrimitiveObjectInspector sizeOI;
+  private ObjectInspector keyOI;
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 2) {
+      throw new UDFArgumentLengthException("Exactly two arguments are expected.");
+    }
+    entries = CounterMapEntries.get(arguments[0], 0, false);
+    if (arguments[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || !Arrays.asList(PrimitiveCategory.BYTE, PrimitiveCategory.SHORT,
+            PrimitiveCategory.INT, PrimitiveCategory.LONG).contains(
+                ((PrimitiveObjectInspector) arguments[1]).getPrimitiveCategory())) {
+      throw new UDFArgumentTypeException(1,
+          "Only an integer n is accepted but " + arguments[1].getTypeName() + " is passed.");
+    }
+    sizeOI = (PrimitiveObjectInspector) arguments[1];
+    keyOI = entries.getKeyObjectInspector();
+    return ParallelArrays.getObjectInspector(
+        "keys", ObjectInspectorUtils.getStandardObjectInspector(keyOI,
+            ObjectInspectorCopyOption.WRITABLE),
+        "counts", PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    Object size = arguments[1].get();
+    if (size == null || arguments[0].get() == null) {
+      return null;
+    }
+    long n = PrimitiveObjectInspectorUtils.getLong(size, sizeOI);
+    if (n < 0L) {
+      throw new HiveException("n must be positive but " + n + " is passed.");
+    }
+    int length = (int) Math.min(n, entries.read(arguments[0].get()));
+    entries.selectFirst(length, true);
+    entries.sort(0, length, true);
+    List<Object> keys = new ArrayList<Object>(length);
+    List<Object> counts = new ArrayList<Object>(length);
+    for (int i = 0; i < length; i++) {
+      keys.add(ObjectInspectorUtils.copyToStandardObject(entries.keys[i], keyOI,
+          ObjectInspectorCopyOption.WRITABLE));
+      counts.add(new LongWritable(entries.counts[i]));
+    }
+    return Arrays.asList((Object) keys, counts);
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    return "counter_map_topn(" + children[0] + ", " + children[1] + ")";
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDFMinHashBands cuts a MinHash signature (see GenericUDAFMinHash) into b bands of k / b
+ * hashes and returns one key per band, a hash of the band and of its position. Two sets of
+ * Jaccard similarity J share at least one band key with a probability of 1 - (1 - J^(k/b))^b,
+ * so exploding the keys and joining on them yields the candidate pairs of similar sets without
+ * comparing all the pairs.
+ * @author Francois Rousseau
+ */
+@Description(name = "minhash_bands",
+             value = "_FUNC_(signature, b) - Returns the keys of the b bands of a MinHash"
+                 + " signature as array<bigint>")
+public class GenericUDFMinHashBands extends GenericUDF {
+
+  private static final long SEED = 0x7fb5d329728ea185L;
+
+  private BinaryObjectInspector inputOI;
+  private int bands;
+
+  private final RowHasher hasher = new RowHasher();
+  private final List<LongWritable> result = new ArrayList<LongWritable>();
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 2) {
+      throw new UDFArgumentLengthException("Exactly two arguments are expected.");
+    }
+    if (arguments[0].getCategory() != ObjectInspector.Category.PRIMITIVE
+        || ((PrimitiveObjectInspector) arguments[0]).getPrimitiveCategory()
+            != PrimitiveObjectInspector.PrimitiveCategory.BINARY) {
+      throw new UDFArgumentTypeException(0,
+          "Only binary signatures are accepted but " + arguments[0].getTypeName()
+          + " is passed.");
+    }
+    inputOI = (BinaryObjectInspector) arguments[0];
+    if (!(arguments[1] instanceof ConstantObjectInspector)) {
+      throw new UDFArgumentTypeException(1, "b must be a constant.");
+    }
+    long size = PrimitiveObjectInspectorUtils.getLong(
+        ((ConstantObjectInspector) arguments[1]).getWritableConstantValue(),
+        (PrimitiveObjectInspector) arguments[1]);
+    if (size <= 0 || size > Integer.MAX_VALUE) {
+      throw new UDFArgumentTypeException(1, "b must be a positive int but " + size
+          + " is passed.");
+    }
+    bands = (int) size;
+    for (int i = 0; i < bands; i++) {
+      result.add(new LongWritable());
+    }
+    return ObjectInspectorFactory.getStandardListObjectInspector(
+        PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    Object signature = arguments[0].get();
+    if (signature == null) {
+      return null;
+    }
+    BytesWritable bytes = inputOI.getPrimitiveWritableObject(signature);
+    int k = bytes.getLength() / 8;
+    if (k == 0 || k % bands != 0) {
+      throw new HiveException("A signature of " + k + " hashes can't be cut into " + bands
+          + " bands.");
+    }
+    int rows = k / bands;
+    for (int band = 0; band < bands; band++) {
+      hasher.reset(SEED);
+      hasher.addLong(band);
+      for (int i = band * rows; i < (band + 1) * rows; i++) {
+        hasher.addLong(GenericUDAFMinHash.getLong(bytes.getBytes(), i));
+      }
+      hasher.finish();
+      result.get(band).set(hasher.high());
+    }
+    return result;
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    return "minhash_bands(" + children[0] + ", " + children[1] + ")";
+  }
+
+}
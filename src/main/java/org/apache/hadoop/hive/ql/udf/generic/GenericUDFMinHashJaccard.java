@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * GenericUDFMinHashJaccard estimates the Jaccard similarity of two sets from their MinHash
+ * signatures (see GenericUDAFMinHash), as the fraction of the hash functions on which they agree.
+ * The standard error of the estimate is sqrt(J * (1 - J) / k) for k hash functions.
+ * @author Francois Rousseau
+ */
+@Description(name = "minhash_jaccard",
+             value = "_FUNC_(signature1, signature2) - Returns the estimated Jaccard similarity of"
+                 + " the sets of two MinHash signatures")
+public class GenericUDFMinHashJaccard extends GenericUDF {
+
+  private BinaryObjectInspector[] inputOIs;
+  private final DoubleWritable result = new DoubleWritable();
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 2) {
+      throw new UDFArgumentLengthException("Exactly two arguments are expected.");
+    }
+    inputOIs = new BinaryObjectInspector[2];
+    for (int i = 0; i < 2; i++) {
+      if (arguments[i].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || ((PrimitiveObjectInspector) arguments[i]).getPrimitiveCategory()
+              != PrimitiveObjectInspector.PrimitiveCategory.BINARY) {
+        throw new UDFArgumentTypeException(i,
+            "Only binary signatures are accepted but " + arguments[i].getTypeName()
+            + " is passed.");
+      }
+      inputOIs[i] = (BinaryObjectInspector) arguments[i];
+    }
+    return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    Object left = arguments[0].get();
+    Object right = arguments[1].get();
+    if (left == null || right == null) {
+      return null;
+    }
+    BytesWritable leftBytes = inputOIs[0].getPrimitiveWritableObject(left);
+    BytesWritable rightBytes = inputOIs[1].getPrimitiveWritableObject(right);
+    int k = leftBytes.getLength() / 8;
+    if (k == 0 || rightBytes.getLength() / 8 != k) {
+      throw new HiveException("Signatures of " + k + " and " + rightBytes.getLength() / 8
+          + " hashes can't be compared.");
+    }
+    int equal = 0;
+    for (int i = 0; i < k; i++) {
+      if (GenericUDAFMinHash.getLong(leftBytes.getBytes(), i)
+          == GenericUDAFMinHash.getLong(rightBytes.getBytes(), i)) {
+        equal++;
+      }
+    }
+    result.set((double) equal / k);
+    return result;
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    return "minhash_jaccard(" + children[0] + ", " + children[1] + ")";
+  }
+
+}
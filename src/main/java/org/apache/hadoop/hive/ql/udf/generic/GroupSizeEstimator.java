@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+
+/**
+ * GroupSizeEstimator keeps track of the final sizes of the most recent groups to estimate how
+ * large the aggregation buffers of the next groups should be initially. With many tiny groups,
+ * the buffers are kept small; with large groups, they are presized to avoid repeated rehashing.
+ * @author Francois Rousseau
+ */
+final class GroupSizeEstimator {
+
+  // number of recent group sizes the estimate is computed from
+  private static final int WINDOW = 64;
+  // the estimate is recomputed every so many groups once the window is warm
+  private static final int PERIOD = 16;
+  private static final int PERCENTILE = 75;
+  // a buffer that grew above that many times the estimate is not reused
+  private static final int OVERSIZED_FACTOR = 4;
+
+  private final int[] sizes = new int[WINDOW];
+  private final int[] sorted = new int[WINDOW];
+  private long count = 0;
+  private int estimate;
+
+  GroupSizeEstimator(int defaultSize) {
+    this.estimate = defaultSize;
+  }
+
+  /** Records the final size of a group. */
+  void add(int size) {
+    sizes[(int) (count % WINDOW)] = size;
+    count++;
+    if (count < PERIOD || count % PERIOD == 0) {
+      int n = (int) Math.min(count, WINDOW);
+      System.arraycopy(sizes, 0, sorted, 0, n);
+      Arrays.sort(sorted, 0, n);
+      estimate = Math.max(1, sorted[(n - 1) * PERCENTILE / 100]);
+    }
+  }
+
+  /** Returns the expected size of the next group. */
+  int estimate() {
+    return estimate;
+  }
+
+  /** Returns true if a buffer of that size is too large to be reused for the next group. */
+  boolean isOversized(int size) {
+    return size > OVERSIZED_FACTOR * estimate;
+  }
+
+}
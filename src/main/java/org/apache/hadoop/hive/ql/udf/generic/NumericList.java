@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * NumericList is a list of numbers for aggregation buffers which stores them in a primitive
+ * array (int[] up to int values, long[] for bigint values and double[] for float and double
+ * values) instead of one writable per element. Past PACK_THRESHOLD elements, the integral values
+ * are packed by blocks of BLOCK_SIZE: each block stores its minimum and the differences to it
+ * with as few bits as needed. The elements are only turned into writables when read.
+ * @author Francois Rousseau
+ */
+final class NumericList extends AbstractList<Object> {
+
+  static final int BLOCK_SIZE = 128;
+  static final int PACK_THRESHOLD = 1024;
+
+  private final PrimitiveCategory category;
+  private final boolean integral;
+  private int size = 0;
+
+  // the elements while not packed
+  private int[] ints;
+  private long[] longs;
+  private double[] doubles;
+
+  // the packed blocks followed by the elements of the last block, not packed yet
+  private long[] words;
+  private int wordCount;
+  private long[] bases;
+  private byte[] widths;
+  private int[] starts;
+  private int blockCount;
+  private long[] tail;
+
+  NumericList(PrimitiveCategory category, int expectedSize) {
+    this.category = category;
+    this.integral = category != PrimitiveCategory.FLOAT && category != PrimitiveCategory.DOUBLE;
+    int capacity = Math.max(expectedSize, 1);
+    if (!integral) {
+      doubles = new double[capacity];
+    } else if (category == PrimitiveCategory.LONG) {
+      longs = new long[capacity];
+    } else {
+      ints = new int[capacity];
+    }
+  }
+
+  static boolean isSupported(PrimitiveCategory category) {
+    switch (category) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+    case FLOAT:
+    case DOUBLE:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  void add(Object o, PrimitiveObjectInspector oi) {
+    if (integral) {
+      addLong(PrimitiveObjectInspectorUtils.getLong(o, oi));
+    } else {
+      addDouble(PrimitiveObjectInspectorUtils.getDouble(o, oi));
+    }
+  }
+
+  /** Adds a value to a list of float or double values. */
+  void addDouble(double value) {
+    if (size == doubles.length) {
+      doubles = Arrays.copyOf(doubles, 2 * size);
+    }
+    doubles[size++] = value;
+  }
+
+  /** Adds a value to a list of integral values. */
+  void addLong(long value) {
+    if (tail != null) {
+      tail[size++ % BLOCK_SIZE] = value;
+      if (size % BLOCK_SIZE == 0) {
+        pack(tail, 0);
+      }
+    } else if (ints != null) {
+      if (size == ints.length) {
+        ints = Arrays.copyOf(ints, 2 * size);
+      }
+      ints[size++] = (int) value;
+    } else {
+      if (size == longs.length) {
+        longs = Arrays.copyOf(longs, 2 * size);
+      }
+      longs[size++] = value;
+    }
+    if (size == PACK_THRESHOLD && tail == null) {
+      packAll();
+    }
+  }
+
+  /** Moves the elements to packed blocks, PACK_THRESHOLD being a multiple of BLOCK_SIZE. */
+  private void packAll() {
+    int blocks = size / BLOCK_SIZE;
+    words = new long[size / 8];
+    bases = new long[2 * blocks];
+    widths = new byte[2 * blocks];
+    starts = new int[2 * blocks];
+    tail = new long[BLOCK_SIZE];
+    for (int i = 0; i < size; i += BLOCK_SIZE) {
+      for (int j = 0; j < BLOCK_SIZE; j++) {
+        tail[j] = ints != null ? ints[i + j] : longs[i + j];
+      }
+      pack(tail, 0);
+    }
+    ints = null;
+    longs = null;
+  }
+
+  private void pack(long[] values, int offset) {
+    long min = values[offset];
+    long max = min;
+    for (int i = offset + 1; i < offset + BLOCK_SIZE; i++) {
+      min = Math.min(min, values[i]);
+      max = Math.max(max, values[i]);
+    }
+    // the differences are unsigned, so that they fit in 64 bits
+    int width = 64 - Long.numberOfLeadingZeros(max - min);
+    int needed = (BLOCK_SIZE * width + 63) / 64;
+    if (blockCount == bases.length) {
+      bases = Arrays.copyOf(bases, 2 * blockCount);
+      widths = Arrays.copyOf(widths, 2 * blockCount);
+      starts = Arrays.copyOf(starts, 2 * blockCount);
+    }
+    if (wordCount + needed > words.length) {
+      words = Arrays.copyOf(words, Math.max(2 * words.length, wordCount + needed));
+    }
+    bases[blockCount] = min;
+    widths[blockCount] = (byte) width;
+    starts[blockCount] = wordCount;
+    blockCount++;
+    if (width > 0) {
+      long bit = (long) wordCount * 64;
+      for (int i = offset; i < offset + BLOCK_SIZE; i++, bit += width) {
+        write(bit, width, values[i] - min);
+      }
+    }
+    wordCount += needed;
+  }
+
+  private void write(long bit, int width, long value) {
+    int word = (int) (bit >>> 6);
+    int shift = (int) (bit & 63);
+    words[word] |= value << shift;
+    if (shift + width > 64) {
+      words[word + 1] |= value >>> (64 - shift);
+    }
+  }
+
+  private long read(long bit, int width) {
+    int word = (int) (bit >>> 6);
+    int shift = (int) (bit & 63);
+    long value = words[word] >>> shift;
+    if (shift + width > 64) {
+      value |= words[word + 1] << (64 - shift);
+    }
+    return width == 64 ? value : value & ((1L << width) - 1);
+  }
+
+  private long getLong(int index) {
+    if (tail == null) {
+      return ints != null ? ints[index] : longs[index];
+    }
+    int block = index / BLOCK_SIZE;
+    if (block == blockCount) {
+      return tail[index % BLOCK_SIZE];
+    }
+    int width = widths[block];
+    if (width == 0) {
+      return bases[block];
+    }
+    return bases[block] + read((long) starts[block] * 64 + (long) (index % BLOCK_SIZE) * width,
+        width);
+  }
+
+  @Override
+  public Object get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    switch (category) {
+    case BYTE:
+      return new ByteWritable((byte) getLong(index));
+    case SHORT:
+      return new ShortWritable((short) getLong(index));
+    case INT:
+      return new IntWritable((int) getLong(index));
+    case LONG:
+      return new LongWritable(getLong(index));
+    case FLOAT:
+      return new FloatWritable((float) doubles[index]);
+    default:
+      return new DoubleWritable(doubles[index]);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    if (tail != null) {
+      // back to plain elements, the packed blocks are dropped
+      if (category == PrimitiveCategory.LONG) {
+        longs = new long[PACK_THRESHOLD];
+      } else {
+        ints = new int[PACK_THRESHOLD];
+      }
+      words = null;
+      bases = null;
+      widths = null;
+      starts = null;
+      tail = null;
+      wordCount = 0;
+      blockCount = 0;
+    }
+    size = 0;
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * ParallelArrays outputs the content of a map as a struct of two parallel arrays (keys and
+ * values), optionally sorted by key or by descending value. This is cheaper to serialize than a
+ * map and can be binary-searched downstream without rebuilding a map.
+ * @author Francois Rousseau
+ */
+final class ParallelArrays {
+
+  static final String SORT_BY_KEY = "key";
+  static final String SORT_BY_COUNT = "count";
+
+  private ParallelArrays() {
+  }
+
+  /** Orders entries by ascending key, null first. */
+  static final Comparator<Map.Entry<Object,?>> BY_KEY = new Comparator<Map.Entry<Object,?>>() {
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(Map.Entry<Object,?> e1, Map.Entry<Object,?> e2) {
+      if (e1.getKey() == null || e2.getKey() == null) {
+        return e1.getKey() == null ? (e2.getKey() == null ? 0 : -1) : 1;
+      }
+      return ((Comparable<Object>) e1.getKey()).compareTo(e2.getKey());
+    }
+  };
+
+  /** Orders entries by descending count, then by ascending key. */
+  static final Comparator<Map.Entry<Object,?>> BY_DESCENDING_COUNT =
+      new Comparator<Map.Entry<Object,?>>() {
+    @Override
+    public int compare(Map.Entry<Object,?> e1, Map.Entry<Object,?> e2) {
+      long c1 = ((LongWritable) e1.getValue()).get();
+      long c2 = ((LongWritable) e2.getValue()).get();
+      return c1 != c2 ? (c1 > c2 ? -1 : 1) : BY_KEY.compare(e1, e2);
+    }
+  };
+
+  /**
+   * Returns the sort order given as a constant argument of the UDAF.
+   */
+  static String getSort(ObjectInspector oi, int index, String... allowed)
+      throws UDFArgumentTypeException {
+    if (!(oi instanceof ConstantObjectInspector)) {
+      throw new UDFArgumentTypeException(index, "The sort order must be a constant.");
+    }
+    String sort = ((ConstantObjectInspector) oi).getWritableConstantValue().toString();
+    if (!Arrays.asList(allowed).contains(sort)) {
+      throw new UDFArgumentTypeException(index, "The sort order must be one of "
+          + Arrays.toString(allowed) + " but " + sort + " is passed.");
+    }
+    return sort;
+  }
+
+  /** Returns the ObjectInspector of the parallel arrays. */
+  static StructObjectInspector getObjectInspector(String keysName, ObjectInspector keyOI,
+      String valuesName, ObjectInspector valueOI) {
+    return ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList(keysName, valuesName), Arrays.asList(
+            (ObjectInspector) ObjectInspectorFactory.getStandardListObjectInspector(keyOI),
+            ObjectInspectorFactory.getStandardListObjectInspector(valueOI)));
+  }
+
+  /**
+   * Returns the keys and values of the map as two parallel arrays, sorted by the given order if
+   * it is not null. The entries are sorted in place in an array: no intermediate map is built.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Object> fromMap(Map<Object,?> container, Comparator<Map.Entry<Object,?>> order) {
+    Map.Entry<Object,?>[] entries = container.entrySet().toArray(
+        (Map.Entry<Object,?>[]) new Map.Entry<?,?>[container.size()]);
+    if (order != null) {
+      Arrays.sort(entries, order);
+    }
+    List<Object> keys = new ArrayList<Object>(entries.length);
+    List<Object> values = new ArrayList<Object>(entries.length);
+    for (Map.Entry<Object,?> entry: entries) {
+      keys.add(entry.getKey());
+      values.add(entry.getValue());
+    }
+    return new ArrayList<Object>(Arrays.asList((Object) keys, values));
+  }
+
+}
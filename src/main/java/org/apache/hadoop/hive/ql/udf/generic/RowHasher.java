@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.sql.Timestamp;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * RowHasher computes a 128-bit hash of a tuple of primitive values, read straight from their
+ * ObjectInspectors without copying them. The mixing steps are those of MurmurHash3 x64 128,
+ * applied to one 64-bit word at a time; strings and binaries are read 8 bytes at a time.
+ *
+ * A hasher is reused for every row: reset() it, add() the values, then finish() it before
+ * reading the two halves of the hash.
+ * @author Francois Rousseau
+ */
+final class RowHasher {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private long h1;
+  private long h2;
+  private long words;
+  // one bit per value, set if it is null, so that a null differs from any non null value
+  private long nulls;
+
+  void reset(long seed) {
+    h1 = seed;
+    h2 = seed;
+    words = 0L;
+    nulls = 0L;
+  }
+
+  void add(Object o, PrimitiveObjectInspector oi) {
+    nulls = Long.rotateLeft(nulls, 1);
+    if (o == null) {
+      nulls |= 1L;
+      return;
+    }
+    switch (oi.getPrimitiveCategory()) {
+      case BOOLEAN:
+        addLong(PrimitiveObjectInspectorUtils.getBoolean(o, oi) ? 1L : 0L);
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        addLong(PrimitiveObjectInspectorUtils.getLong(o, oi));
+        break;
+      case FLOAT:
+        addLong(Float.floatToIntBits(PrimitiveObjectInspectorUtils.getFloat(o, oi)));
+        break;
+      case DOUBLE:
+        addLong(Double.doubleToLongBits(PrimitiveObjectInspectorUtils.getDouble(o, oi)));
+        break;
+      case STRING:
+        Text text = ((StringObjectInspector) oi).getPrimitiveWritableObject(o);
+        addBytes(text.getBytes(), text.getLength());
+        break;
+      case BINARY:
+        BytesWritable bytes = ((BinaryObjectInspector) oi).getPrimitiveWritableObject(o);
+        addBytes(bytes.getBytes(), bytes.getLength());
+        break;
+      case TIMESTAMP:
+        Timestamp timestamp = ((TimestampObjectInspector) oi).getPrimitiveJavaObject(o);
+        addLong(timestamp.getTime());
+        addLong(timestamp.getNanos());
+        break;
+      default:
+        throw new IllegalArgumentException(oi.getTypeName() + " can't be hashed.");
+    }
+  }
+
+  // the length is added last so that ("ab", "c") and ("a", "bc") differ
+  private void addBytes(byte[] bytes, int length) {
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      addLong((bytes[i] & 0xFFL) | (bytes[i + 1] & 0xFFL) << 8 | (bytes[i + 2] & 0xFFL) << 16
+          | (bytes[i + 3] & 0xFFL) << 24 | (bytes[i + 4] & 0xFFL) << 32
+          | (bytes[i + 5] & 0xFFL) << 40 | (bytes[i + 6] & 0xFFL) << 48
+          | (bytes[i + 7] & 0xFFL) << 56);
+    }
+    if (i < length) {
+      long tail = 0L;
+      for (int shift = 0; i < length; i++, shift += 8) {
+        tail |= (bytes[i] & 0xFFL) << shift;
+      }
+      addLong(tail);
+    }
+    addLong(length);
+  }
+
+  void addLong(long k) {
+    h1 ^= Long.rotateLeft(k * C1, 31) * C2;
+    h1 = Long.rotateLeft(h1, 27) + h2;
+    h1 = h1 * 5 + 0x52dce729;
+    h2 ^= Long.rotateLeft(k * C2, 33) * C1;
+    h2 = Long.rotateLeft(h2, 31) + h1;
+    h2 = h2 * 5 + 0x38495ab5;
+    words++;
+  }
+
+  void finish() {
+    h1 ^= words;
+    h2 ^= nulls;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+  }
+
+  /** Returns the first 64 bits of the hash, once finished. */
+  long high() {
+    return h1;
+  }
+
+  /** Returns the last 64 bits of the hash, once finished. */
+  long low() {
+    return h2;
+  }
+
+  /** Returns the MurmurHash3 finalization of k, a bijection which spreads all its bits. */
+  static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+}
@@ -0,0 +1,476 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hive.serde2.ByteStream;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryObject;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * SlabStore stores values serialized with LazyBinary one after the other in slabs of memory, on
+ * the heap or off-heap in direct ByteBuffers. A stored value is referenced by a handle (its slab
+ * and its offset in the slab) and is only deserialized when it is read back.
+ *
+ * Off-heap slabs are given back to a task-wide pool when the store is released so that their
+ * memory is reused deterministically instead of waiting for a GC to free it. Off-heap storage is
+ * disabled by default and enabled with -Dhive.udaf.offheap=true on the task JVMs. Even then, a
+ * store starts with small heap slabs and only moves to off-heap slabs once it outgrows them:
+ * map-side aggregations hold thousands of small groups, whose memory must remain visible to the
+ * heap-based flush of the hash aggregation rather than pin a direct slab each.
+ * @author Francois Rousseau
+ */
+final class SlabStore {
+
+  static final String OFF_HEAP_PROPERTY = "hive.udaf.offheap";
+  static final boolean OFF_HEAP = Boolean.getBoolean(OFF_HEAP_PROPERTY);
+
+  private static final int SLAB_SIZE = 64 * 1024;
+  // slabs start small on the heap and double up to SLAB_SIZE, most groups being small; off-heap
+  // stores allocate their slabs of SLAB_SIZE off-heap
+  private static final int MIN_HEAP_SLAB_SIZE = 256;
+  private static final int MAX_POOLED_SLABS = 256;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer> POOL =
+      new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+
+  private final boolean direct;
+  private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+  private ByteBuffer current;
+  // bytes of the values stored, and of the values replaced which are still in the slabs
+  private long liveBytes = 0L;
+  private long deadBytes = 0L;
+
+  // for serialization
+  private final ByteStream.Output output = new ByteStream.Output();
+
+  // for deserialization, created with the first value stored
+  private ObjectInspector lazyOI;
+  private LazyBinaryObject<?> lazyObject;
+  private final ByteArrayRef ref = new ByteArrayRef();
+  private byte[] scratch = new byte[0];
+  private int start;
+  private int length;
+
+  SlabStore(boolean direct) {
+    this.direct = direct;
+  }
+
+  /**
+   * Returns the standard ObjectInspector of values aggregated from oi. Values read back from
+   * off-heap storage are always writables.
+   */
+  static ObjectInspector getStandardObjectInspector(ObjectInspector oi) {
+    return OFF_HEAP
+        ? ObjectInspectorUtils.getStandardObjectInspector(oi, ObjectInspectorCopyOption.WRITABLE)
+        : ObjectInspectorUtils.getStandardObjectInspector(oi);
+  }
+
+  /** Returns the ObjectInspector of the LazyBinary objects of the values stored from oi. */
+  static ObjectInspector getLazyObjectInspector(ObjectInspector oi) {
+    return LazyBinaryUtils.getLazyBinaryObjectInspectorFromTypeInfo(
+        TypeInfoUtils.getTypeInfoFromObjectInspector(oi));
+  }
+
+  private static ByteBuffer allocate(int size, boolean direct) {
+    if (!direct) {
+      return ByteBuffer.allocate(size);
+    }
+    if (size == SLAB_SIZE) {
+      ByteBuffer slab = POOL.poll();
+      if (slab != null) {
+        POOLED.decrementAndGet();
+        slab.clear();
+        return slab;
+      }
+    }
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  private static int vIntSize(int i) {
+    int size = 1;
+    while ((i & ~0x7F) != 0) {
+      i >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  /** Serializes a value, possibly null, into output and returns its header. */
+  private int serialize(Object o, ObjectInspector oi) {
+    if (lazyOI == null) {
+      lazyOI = getLazyObjectInspector(oi);
+      lazyObject = LazyBinaryFactory.createLazyBinaryObject(lazyOI);
+    }
+    output.reset();
+    if (o != null) {
+      LazyBinarySerDe.serialize(output, o, oi, true, false);
+    }
+    // the length is stored plus one, zero being a null value
+    return o == null ? 0 : output.getCount() + 1;
+  }
+
+  /** Makes room for needed bytes at the end of the store and returns their handle. */
+  private long reserve(int needed) {
+    if (current == null || current.remaining() < needed) {
+      int slabSize =
+          Math.min(SLAB_SIZE, current == null ? MIN_HEAP_SLAB_SIZE : 2 * current.capacity());
+      current = allocate(Math.max(needed, slabSize), direct && slabSize == SLAB_SIZE);
+      slabs.add(current);
+    }
+    liveBytes += needed;
+    return ((long) (slabs.size() - 1) << 32) | current.position();
+  }
+
+  /** Writes a header and the serialized value in output into slab, from its position. */
+  private void write(ByteBuffer slab, int header) {
+    while ((header & ~0x7F) != 0) {
+      slab.put((byte) ((header & 0x7F) | 0x80));
+      header >>>= 7;
+    }
+    slab.put((byte) header);
+    slab.put(output.getData(), 0, output.getCount());
+  }
+
+  /** Stores a value, possibly null, and returns its handle. */
+  long add(Object o, ObjectInspector oi) {
+    int header = serialize(o, oi);
+    long handle = reserve(vIntSize(header) + output.getCount());
+    write(current, header);
+    return handle;
+  }
+
+  /**
+   * Replaces the value of a handle and returns the handle of the new value. The new value is
+   * written in place when it fits in the bytes of the previous one; otherwise it is stored at the
+   * end and the bytes of the previous one are dead until compact() is called. A replaced value
+   * can no longer be followed by next(): replacing is only meant for values read by handle.
+   */
+  long replace(long handle, Object o, ObjectInspector oi) {
+    int footprint = footprint(slabs.get((int) (handle >>> 32)), (int) handle);
+    int header = serialize(o, oi);
+    int needed = vIntSize(header) + output.getCount();
+    if (needed <= footprint) {
+      ByteBuffer slab = slabs.get((int) (handle >>> 32)).duplicate();
+      slab.position((int) handle);
+      write(slab, header);
+      liveBytes -= footprint - needed;
+      deadBytes += footprint - needed;
+      return handle;
+    }
+    liveBytes -= footprint;
+    deadBytes += footprint;
+    long result = reserve(needed);
+    write(current, header);
+    return result;
+  }
+
+  /** Returns the number of bytes taken by the values, including the dead bytes. */
+  long getBytes() {
+    return liveBytes + deadBytes;
+  }
+
+  /**
+   * Returns true if the dead bytes of the replaced values take more room than the live values,
+   * in which case the store should be compacted.
+   */
+  boolean isFragmented() {
+    return deadBytes > liveBytes && deadBytes >= MIN_HEAP_SLAB_SIZE;
+  }
+
+  /**
+   * Copies the values of the handles of a map into new slabs, freeing the dead bytes, and updates
+   * the handles of the map. The values which are not in the map are lost.
+   */
+  void compact(Map<Object,Object> handles) {
+    List<ByteBuffer> previous = new ArrayList<ByteBuffer>(slabs);
+    slabs.clear();
+    current = null;
+    liveBytes = 0L;
+    deadBytes = 0L;
+    for (Map.Entry<Object,Object> entry : handles.entrySet()) {
+      long handle = (Long) entry.getValue();
+      ByteBuffer value = previous.get((int) (handle >>> 32)).duplicate();
+      value.position((int) handle);
+      value.limit((int) handle + footprint(value, (int) handle));
+      entry.setValue(reserve(value.remaining()));
+      current.put(value);
+    }
+    recycle(previous);
+  }
+
+  /** Returns the number of bytes taken by the header and the value at a position of a slab. */
+  private static int footprint(ByteBuffer slab, int position) {
+    int start = position;
+    int header = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = slab.get(position++);
+      header |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return position - start + Math.max(header - 1, 0);
+  }
+
+  /**
+   * Reads the header of a value into length and, if load is set, locates its serialized bytes in
+   * ref and start. Returns the size of the header or 0 if the value is null.
+   */
+  private int locate(long handle, boolean load) {
+    ByteBuffer slab = slabs.get((int) (handle >>> 32));
+    int position = (int) handle;
+    int header = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = slab.get(position++);
+      header |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    length = Math.max(header - 1, 0);
+    if (header == 0) {
+      return 0;
+    }
+    if (!load) {
+      return position - (int) handle;
+    }
+    if (slab.hasArray()) {
+      ref.setData(slab.array());
+      start = slab.arrayOffset() + position;
+    } else {
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, 2 * scratch.length)];
+      }
+      ByteBuffer view = slab.duplicate();
+      view.position(position);
+      view.get(scratch, 0, length);
+      ref.setData(scratch);
+      start = 0;
+    }
+    return position - (int) handle;
+  }
+
+  /**
+   * Returns the value of a handle as a LazyBinary object, valid until the next read, with its
+   * ObjectInspector given by getLazyObjectInspector.
+   */
+  Object getLazy(long handle) {
+    if (locate(handle, true) == 0) {
+      return null;
+    }
+    lazyObject.init(ref, start, length);
+    return lazyObject.getObject();
+  }
+
+  /** Returns a standard copy of the value of a handle. */
+  Object get(long handle) {
+    return ObjectInspectorUtils.copyToStandardObject(getLazy(handle), lazyOI);
+  }
+
+  ObjectInspector getLazyObjectInspector() {
+    return lazyOI;
+  }
+
+  /** Returns the handle of the value stored right after the given one, for sequential reads. */
+  long next(long handle) {
+    int header = Math.max(locate(handle, false), 1);
+    int slab = (int) (handle >>> 32);
+    long position = (int) handle + header + length;
+    if (position >= slabs.get(slab).position() && slab + 1 < slabs.size()) {
+      return (long) (slab + 1) << 32;
+    }
+    return ((long) slab << 32) | position;
+  }
+
+  /**
+   * Releases the memory of all the values, their handles are no longer valid. The store keeps its
+   * first slab, on the heap, for the next values.
+   */
+  void release() {
+    ByteBuffer first = slabs.isEmpty() ? null : slabs.get(0);
+    recycle(slabs);
+    slabs.clear();
+    current = null;
+    liveBytes = 0L;
+    deadBytes = 0L;
+    if (first != null && !first.isDirect() && first.capacity() <= SLAB_SIZE) {
+      first.clear();
+      slabs.add(first);
+      current = first;
+    }
+  }
+
+  /** Gives the direct slabs back to the pool. */
+  private void recycle(List<ByteBuffer> released) {
+    if (!direct) {
+      return;
+    }
+    for (ByteBuffer slab: released) {
+      if (!slab.isDirect() || slab.capacity() != SLAB_SIZE) {
+        continue;
+      }
+      if (POOLED.incrementAndGet() <= MAX_POOLED_SLABS) {
+        POOL.offer(slab);
+      } else {
+        POOLED.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * A list of values stored in a SlabStore, read back sequentially without any per-element
+   * object on the heap.
+   */
+  static final class ValueList extends AbstractList<Object> {
+    private final SlabStore store;
+    private int size = 0;
+    private long first;
+
+    // position of the next sequential read
+    private int cursor = 0;
+    private long cursorHandle;
+
+    ValueList(boolean direct) {
+      store = new SlabStore(direct);
+    }
+
+    void add(Object o, ObjectInspector oi) {
+      long handle = store.add(o, oi);
+      if (size == 0) {
+        first = handle;
+        cursor = 0;
+        cursorHandle = handle;
+      }
+      size++;
+    }
+
+    @Override
+    public Object get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      if (index < cursor) {
+        cursor = 0;
+        cursorHandle = first;
+      }
+      while (cursor < index) {
+        cursorHandle = store.next(cursorHandle);
+        cursor++;
+      }
+      return store.get(cursorHandle);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      store.release();
+      size = 0;
+    }
+  }
+
+  /**
+   * A view of a map from keys to handles of values stored in a SlabStore, which deserializes the
+   * values when they are read, or only exposes them as LazyBinary objects if lazy is set.
+   */
+  static final class ValueMap extends AbstractMap<Object,Object> {
+    private final Map<Object,Object> handles;
+    private final SlabStore store;
+    private final boolean lazy;
+
+    ValueMap(Map<Object,Object> handles, SlabStore store, boolean lazy) {
+      this.handles = handles;
+      this.store = store;
+      this.lazy = lazy;
+    }
+
+    private Object getValue(Object handle) {
+      return lazy ? store.getLazy((Long) handle) : store.get((Long) handle);
+    }
+
+    @Override
+    public Object get(Object key) {
+      Object handle = handles.get(key);
+      return handle == null ? null : getValue(handle);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return handles.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return handles.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Object,Object>> entrySet() {
+      return new AbstractSet<Map.Entry<Object,Object>>() {
+        @Override
+        public Iterator<Map.Entry<Object,Object>> iterator() {
+          final Iterator<Map.Entry<Object,Object>> it = handles.entrySet().iterator();
+          return new Iterator<Map.Entry<Object,Object>>() {
+            public boolean hasNext() {
+              return it.hasNext();
+            }
+
+            public Map.Entry<Object,Object> next() {
+              Map.Entry<Object,Object> entry = it.next();
+              return new AbstractMap.SimpleImmutableEntry<Object,Object>(
+                  entry.getKey(), getValue(entry.getValue()));
+            }
+
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return handles.size();
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * StringCanonicalizer is a task-wide cache of the string values stored in the aggregation buffers
+ * so that equal strings across groups share one Text instance instead of one copy each.
+ *
+ * It is disabled by default and enabled by giving its number of entries to the task JVMs, e.g.
+ * SET mapred.child.java.opts=-Dhive.udaf.canonical.strings=65536;
+ *
+ * The cache is a direct-mapped table: a string evicts whatever was in its slot. Slots are read
+ * and written without locking, a race only costs a missed deduplication. Cached instances are
+ * never modified.
+ * @author Francois Rousseau
+ */
+final class StringCanonicalizer {
+
+  static final String SIZE_PROPERTY = "hive.udaf.canonical.strings";
+
+  // longer strings are rarely repeated and expensive to compare
+  static final int MAX_LENGTH = 256;
+
+  private static final StringCanonicalizer INSTANCE = create(Integer.getInteger(SIZE_PROPERTY, 0));
+
+  private final AtomicReferenceArray<Text> table;
+  private final int mask;
+
+  private StringCanonicalizer(int size) {
+    table = new AtomicReferenceArray<Text>(size);
+    mask = size - 1;
+  }
+
+  static StringCanonicalizer create(int size) {
+    if (size <= 0) {
+      return null;
+    }
+    // round up to a power of two
+    return new StringCanonicalizer(Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+  }
+
+  /**
+   * Same as ObjectInspectorUtils.copyToStandardObject except that strings come from the cache
+   * when it is enabled.
+   */
+  static Object copyToStandardObject(Object o, ObjectInspector oi) {
+    if (INSTANCE != null && o != null && oi.getCategory() == ObjectInspector.Category.PRIMITIVE
+        && ((PrimitiveObjectInspector) oi).getPrimitiveCategory() == PrimitiveCategory.STRING
+        && ((PrimitiveObjectInspector) oi).preferWritable()) {
+      return INSTANCE.canonicalize(((StringObjectInspector) oi).getPrimitiveWritableObject(o));
+    }
+    return ObjectInspectorUtils.copyToStandardObject(o, oi);
+  }
+
+  /** Returns a copy of a string value as a Text, from the cache when it is enabled. */
+  static Text copy(Object o, StringObjectInspector oi) {
+    if (!oi.preferWritable()) {
+      return new Text(oi.getPrimitiveJavaObject(o));
+    }
+    Text text = oi.getPrimitiveWritableObject(o);
+    return INSTANCE != null ? INSTANCE.canonicalize(text) : new Text(text);
+  }
+
+  /** Returns the cached instance equal to text, caching a copy of text if there is none. */
+  Text canonicalize(Text text) {
+    if (text.getLength() > MAX_LENGTH) {
+      return new Text(text);
+    }
+    int slot = WritableComparator.hashBytes(text.getBytes(), text.getLength()) & mask;
+    Text cached = table.get(slot);
+    if (cached != null && cached.equals(text)) {
+      return cached;
+    }
+    Text copy = new Text(text);
+    table.lazySet(slot, copy);
+    return copy;
+  }
+
+}
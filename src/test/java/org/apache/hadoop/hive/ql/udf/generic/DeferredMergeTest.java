@@ -0,0 +1,108 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class DeferredMergeTest {
+
+  private static final int PARTIALS = 300;
+
+  // partials of a skewed group: keys shared by all of them and keys of their own
+  private static List<Map<Object,Object>> partials(boolean text) {
+    List<Map<Object,Object>> partials = new ArrayList<Map<Object,Object>>(PARTIALS);
+    for (int i = 0; i < PARTIALS; i++) {
+      Map<Object,Object> partial = new HashMap<Object,Object>();
+      for (int j = 0; j < 50; j++) {
+        int key = j % 2 == 0 ? j : i * 100 + j;
+        partial.put(text ? new Text("k" + key) : new IntWritable(key), new LongWritable(i + j));
+      }
+      // null counts are skipped
+      partial.put(text ? new Text("null") : new IntWritable(-1), null);
+      partials.add(partial);
+    }
+    return partials;
+  }
+
+  private static Map<Object,Object> merge(TypeInfo type, ObjectInspector keyOI,
+      List<Map<Object,Object>> partials, int threads, long budget) throws Exception {
+    GenericUDAFCounterMapEvaluator evaluator = (GenericUDAFCounterMapEvaluator)
+        new GenericUDAFCounterMap().getEvaluator(new TypeInfo[] {type});
+    evaluator.setMergeThreads(threads);
+    evaluator.setMergeBudget(budget);
+    evaluator.init(Mode.FINAL, new ObjectInspector[] {
+        ObjectInspectorFactory.getStandardMapObjectInspector(keyOI,
+            PrimitiveObjectInspectorFactory.writableLongObjectInspector)});
+    AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+    Map<Object,Object> result = null;
+    // twice, to check that the buffer is reusable by the next group
+    for (int round = 0; round < 2; round++) {
+      evaluator.reset(agg);
+      for (Map<Object,Object> partial : partials) {
+        evaluator.merge(agg, partial);
+      }
+      result = new HashMap<Object,Object>((Map<?,?>) evaluator.terminate(agg));
+    }
+    return result;
+  }
+
+  private static void checkMerge(TypeInfo type, ObjectInspector keyOI, boolean text)
+      throws Exception {
+    List<Map<Object,Object>> partials = partials(text);
+    Map<Object,Object> serial = merge(type, keyOI, partials, 0, DeferredMerge.DEFAULT_BUDGET);
+    assertEquals(25 + 25 * PARTIALS, serial.size());
+    // merged when the group is output, and by budget as the partials are queued
+    assertEquals(serial, merge(type, keyOI, partials, 3, DeferredMerge.DEFAULT_BUDGET));
+    assertEquals(serial, merge(type, keyOI, partials, 4, 4096));
+  }
+
+  @Test
+  public void testIntKeys() throws Exception {
+    checkMerge(TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector, false);
+  }
+
+  @Test
+  public void testStringKeys() throws Exception {
+    checkMerge(TypeInfoFactory.stringTypeInfo,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector, true);
+  }
+
+  @Test
+  public void testPlanSerialization() throws Exception {
+    GenericUDAFCounterMapEvaluator evaluator =
+        new GenericUDAFCounterMap.GenericUDAFStringCounterMapEvaluator();
+    evaluator.setMergeThreads(4);
+    evaluator.setMergeBudget(1024);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    XMLEncoder encoder = new XMLEncoder(bytes);
+    encoder.writeObject(evaluator);
+    encoder.close();
+    XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+    GenericUDAFCounterMapEvaluator decoded = (GenericUDAFCounterMapEvaluator) decoder.readObject();
+    decoder.close();
+    assertEquals(4, decoded.getMergeThreads());
+    assertEquals(1024, decoded.getMergeBudget());
+  }
+
+}
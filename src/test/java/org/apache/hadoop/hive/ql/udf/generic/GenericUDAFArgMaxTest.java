@@ -0,0 +1,64 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFArgMaxTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFArgMaxTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testArgMax() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,5,e\n",
+        "2138,1,a\n",
+        "2138,9,i\n",
+        "2138,3,c\n",
+        "2139,2,b\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFArgMax.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\ti", client.fetchOne());
+    assertEquals("2139\tb", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testArgMin() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,5,e\n",
+        "2138,1,a\n",
+        "2138,9,i\n",
+        "2138,3,c\n",
+        "2139,2,b\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFArgMin.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\ta", client.fetchOne());
+    assertEquals("2139\tb", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFCooccurrenceCountsTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFCooccurrenceCountsTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,1\n",
+        "2139,3\n",
+        "2140,4\n",
+        "2140,5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCooccurrenceCounts.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":1,\"col2\":2}],\"counts\":[1]}",
+        client.fetchOne());
+    assertEquals("2139\t{\"keys\":[],\"counts\":[]}", client.fetchOne());
+    assertEquals("2140\t{\"keys\":[{\"col1\":4,\"col2\":5}],\"counts\":[1]}",
+        client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testTopK() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,2\n",
+        "2138,2,3\n",
+        "2138,1,2\n",
+        "2139,1,2\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCooccurrenceCounts.class.getName()));
+
+    // each row is a basket
+    client.execute(FROM_TABLE + " SELECT f(array(col2, col3), 1)");
+    assertEquals("{\"keys\":[{\"col1\":1,\"col2\":2}],\"counts\":[3]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
@@ -0,0 +1,71 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFCounterMapArraysTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFCounterMapArraysTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testSortByKey() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,3\n",
+        "2138,1\n",
+        "2138,3\n",
+        "2138,2\n",
+        "2140,5\n",
+        "2140,4\n",
+        "2140,5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMapArrays.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, 'key') GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[1,2,3],\"counts\":[1,1,2]}", client.fetchOne());
+    assertEquals("2140\t{\"keys\":[4,5],\"counts\":[1,2]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testSortByCount() throws Exception {
+    Path p = createInputFile(FILE,
+        "3\n",
+        "1\n",
+        "3\n",
+        "2\n",
+        "2\n",
+        "3\n",
+        "7\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT)");
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMapArrays.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT f(col1, 'count')");
+    assertEquals("{\"keys\":[3,2,1,7],\"counts\":[3,2,1,1]}", client.fetchOne());
+
+    client.execute(FROM_TABLE + " SELECT f(col1, 'count').keys[0]");
+    assertEquals("3", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+}
@@ -70,4 +70,241 @@ public class GenericUDAFCounterMapTest extends HiveTestServiceWithConstants {
     // clean up.
     getFileSystem().delete(p, false);
   }
+
+  @Test
+  public void testManyKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "1\n",
+        "2\n",
+        "3\n",
+        "4\n",
+        "5\n",
+        "6\n",
+        "7\n",
+        "8\n",
+        "9\n",
+        "10\n",
+        "11\n",
+        "1\n",
+        "9\n",
+        "9\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT)");
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    // more keys than what is stored inline
+    client.execute(FROM_TABLE + " SELECT f(col1)");
+    assertEquals("{1:2,2:1,3:1,4:1,5:1,6:1,7:1,8:1,9:3,10:1,11:1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testComposite() throws Exception {
+    Path p = createInputFile(FILE,
+        "fr,ios\n",
+        "us,android\n",
+        "fr,ios\n",
+        "fr,web\n",
+        "us,android\n",
+        "fr,ios\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 STRING, col2 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT f(col1, col2)");
+    assertEquals("{\"keys\":[{\"col1\":\"fr\",\"col2\":\"ios\"},"
+        + "{\"col1\":\"us\",\"col2\":\"android\"},{\"col1\":\"fr\",\"col2\":\"web\"}],"
+        + "\"counts\":[3,2,1]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testCompositeGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,1\n",
+        "2138,1,2\n",
+        "2138,1,1\n",
+        "2138,1,1\n",
+        "2140,2,5\n",
+        "2140,2,5\n",
+        "2140,2,3\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":1,\"col2\":1},{\"col1\":1,\"col2\":2}],"
+        + "\"counts\":[3,1]}", client.fetchOne());
+    assertEquals("2140\t{\"keys\":[{\"col1\":2,\"col2\":5},{\"col1\":2,\"col2\":3}],"
+        + "\"counts\":[2,1]}", client.fetchOne());
+
+    // small integers are packed into a long
+    client.execute(FROM_TABLE + " SELECT col1, f(cast(col2 AS SMALLINT), cast(col3 AS SMALLINT))"
+        + " WHERE col1 = 2138 GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":1,\"col2\":1},{\"col1\":1,\"col2\":2}],"
+        + "\"counts\":[3,1]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,1\n",
+        "2140,5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    // without map-side aggregation, the counters are built in a single stage (COMPLETE mode)
+    client.execute("SET hive.map.aggr=false");
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{1:2,2:1}", client.fetchOne());
+    assertEquals("2140\t{5:1}", client.fetchOne());
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col2 * 2) GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":1,\"col2\":2},{\"col1\":2,\"col2\":4}],"
+        + "\"counts\":[2,1]}", client.fetchOne());
+    assertEquals("2140\t{\"keys\":[{\"col1\":5,\"col2\":10}],\"counts\":[1]}",
+        client.fetchOne());
+    client.execute("SET hive.map.aggr=true");
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testArray() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,2\n",
+        "2138,2,2\n",
+        "2140,5,3\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    // the elements of the arrays are aggregated as if they had been exploded into rows
+    client.execute(FROM_TABLE + " SELECT col1, f(array(col2, col3)) GROUP BY col1");
+    assertEquals("2138\t{1:1,2:3}", client.fetchOne());
+    assertEquals("2140\t{5:1,3:1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testBigintKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,10000000000\n",
+        "2138,-3\n",
+        "2138,10000000000\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2140,-3\n",
+        "2140,10000000000\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{10000000000:2,-3:1}", client.fetchOne());
+    assertEquals("2139\t{7:3}", client.fetchOne());
+    assertEquals("2140\t{-3:1,10000000000:1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testDoubleKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1.5\n",
+        "2138,-0.25\n",
+        "2138,1.5\n",
+        "2139,2.0\n",
+        "2139,2.0\n",
+        "2139,2.0\n",
+        "2140,-0.25\n",
+        "2140,1.5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 DOUBLE)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{1.5:2,-0.25:1}", client.fetchOne());
+    assertEquals("2139\t{2.0:3}", client.fetchOne());
+    assertEquals("2140\t{-0.25:1,1.5:1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testStringKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,bb\n",
+        "2138,a\n",
+        "2138,bb\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2140,a\n",
+        "2140,bb\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFCounterMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{\"bb\":2,\"a\":1}", client.fetchOne());
+    assertEquals("2139\t{\"ccc\":3}", client.fetchOne());
+    assertEquals("2140\t{\"a\":1,\"bb\":1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
 }
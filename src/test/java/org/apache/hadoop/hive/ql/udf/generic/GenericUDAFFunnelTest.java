@@ -0,0 +1,78 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFFunnelTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFFunnelTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,home\n",
+        "2138,2,search\n",
+        "2138,3,home\n",
+        "2138,4,product\n",
+        "2138,5,cart\n",
+        "2139,1,search\n",
+        "2139,2,home\n",
+        "2139,3,cart\n",
+        "2140,1,product\n",
+        "2140,2,cart\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFFunnel.class.getName()));
+
+    client.execute(FROM_TABLE
+        + " SELECT col1, f(col2, col3, 'home', 'product', 'cart') GROUP BY col1");
+    assertEquals("2138\t3", client.fetchOne());
+    assertEquals("2139\t1", client.fetchOne());
+    assertEquals("2140\t0", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testShuffledRows() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,4,product\n",
+        "2139,2,home\n",
+        "2138,1,home\n",
+        "2138,5,cart\n",
+        "2140,2,cart\n",
+        "2138,3,home\n",
+        "2139,1,search\n",
+        "2139,3,cart\n",
+        "2138,2,search\n",
+        "2140,1,product\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFFunnel.class.getName()));
+
+    client.execute(FROM_TABLE
+        + " SELECT col1, f(col2, col3, 'home', 'product', 'cart') GROUP BY col1");
+    assertEquals("2138\t3", client.fetchOne());
+    assertEquals("2139\t1", client.fetchOne());
+    assertEquals("2140\t0", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
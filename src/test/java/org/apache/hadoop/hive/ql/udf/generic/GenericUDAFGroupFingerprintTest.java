@@ -0,0 +1,49 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFGroupFingerprintTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFGroupFingerprintTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupFingerprint() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,a,1\n",
+        "2138,b,2\n",
+        "2138,a,1\n",
+        "2139,a,1\n",
+        "2139,a,1\n",
+        "2139,b,2\n",
+        "2140,a,1\n",
+        "2140,b,2\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING, col3 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFGroupFingerprint.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    String first = client.fetchOne().split("\t")[1];
+    String second = client.fetchOne().split("\t")[1];
+    String third = client.fetchOne().split("\t")[1];
+    assertEquals(32, first.length());
+    // the same rows in another order
+    assertEquals(first, second);
+    // a duplicate row less
+    assertFalse(first.equals(third));
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFMergeCounterMapsTest extends HiveTestServiceWithConstants {
+
+  private static final String ROW_FORMAT_MAP = ROW_FORMAT_COMMA
+      + " COLLECTION ITEMS TERMINATED BY '|' MAP KEYS TERMINATED BY ':'";
+
+  public GenericUDAFMergeCounterMapsTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testSimple() throws Exception {
+    Path p = createInputFile(FILE,
+        "a:1|b:2\n",
+        "a:3|c:4\n",
+        "b:5\n",
+        "c:1|d:1\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 MAP<STRING,BIGINT>)" + ROW_FORMAT_MAP);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFMergeCounterMaps.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT f(col1)");
+    assertEquals("{\"a\":4,\"b\":7,\"c\":5,\"d\":1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1:1|2:2\n",
+        "2138,1:2\n",
+        "2138,3:1\n",
+        "2140,1:1|5:1\n",
+        "2140,2:3\n",
+        "2140,5:2|2:1\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 MAP<INT,BIGINT>)" + ROW_FORMAT_MAP);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFMergeCounterMaps.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t{1:3,2:2,3:1}", client.fetchOne());
+    assertEquals("2140\t{1:1,5:3,2:4}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testRollup() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,2\n",
+        "2139,1\n",
+        "2139,3\n",
+        "2140,2\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFMergeCounterMaps.class.getName()));
+    client.execute(String.format(CREATE_FUNCTION + "counter_map AS '%s'",
+        GenericUDAFCounterMap.class.getName()));
+
+    client.execute(
+        "FROM("
+            + FROM_TABLE + " SELECT col1, counter_map(col2) AS daily GROUP BY col1"
+        + " )a"
+        + " SELECT f(daily)");
+    assertEquals("{1:2,2:3,3:1}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+}
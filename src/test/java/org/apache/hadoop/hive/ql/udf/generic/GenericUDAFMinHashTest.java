@@ -0,0 +1,53 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFMinHashTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFMinHashTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testMinHash() throws Exception {
+    Path p = createInputFile(FILE,
+        "1,a\n",
+        "1,b\n",
+        "1,c\n",
+        "2,c\n",
+        "2,a\n",
+        "2,b\n",
+        "2,a\n",
+        "3,x\n",
+        "3,y\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFMinHash.class.getName()));
+    client.execute(CREATE_FUNCTION + "jaccard AS '"
+        + GenericUDFMinHashJaccard.class.getName() + "'");
+    client.execute(CREATE_FUNCTION + "bands AS '"
+        + GenericUDFMinHashBands.class.getName() + "'");
+
+    client.execute("SELECT a.col1, b.col1, jaccard(a.s, b.s), size(bands(a.s, 16))"
+        + " FROM (" + FROM_TABLE + " SELECT 0 k, col1, f(col2, 64) s GROUP BY col1) a"
+        + " JOIN (" + FROM_TABLE + " SELECT 0 k, col1, f(col2, 64) s GROUP BY col1) b"
+        + " ON (a.k = b.k) WHERE a.col1 = 1 AND b.col1 > 1 ORDER BY b.col1");
+    // the same distinct values, in another order and with a duplicate
+    assertEquals("1\t2\t1.0\t16", client.fetchOne());
+    // no value in common
+    assertEquals("1\t3\t0.0\t16", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
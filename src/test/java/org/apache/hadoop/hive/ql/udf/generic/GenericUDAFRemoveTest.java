@@ -0,0 +1,180 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class GenericUDAFRemoveTest {
+
+  private static final int WINDOW = 3;
+
+  private static GenericUDAFEvaluator init(GenericUDAFResolver resolver, ObjectInspector... ois)
+      throws Exception {
+    TypeInfo[] types = new TypeInfo[ois.length];
+    for (int i = 0; i < ois.length; i++) {
+      types[i] = TypeInfoUtils.getTypeInfoFromObjectInspector(ois[i]);
+    }
+    GenericUDAFEvaluator evaluator = resolver.getEvaluator(types);
+    evaluator.init(Mode.COMPLETE, ois);
+    return evaluator;
+  }
+
+  // the values of a ROWS frame of WINDOW rows sliding over the rows, as output after each row
+  private static List<String> slideToList(ObjectInspector oi, List<Object> rows)
+      throws Exception {
+    GenericUDAFToList.GenericUDAFToListEvaluator evaluator =
+        (GenericUDAFToList.GenericUDAFToListEvaluator) init(new GenericUDAFToList(), oi);
+    GenericUDAFToList.GenericUDAFToListEvaluator.ToListAgg agg =
+        (GenericUDAFToList.GenericUDAFToListEvaluator.ToListAgg)
+            evaluator.getNewAggregationBuffer();
+    List<String> windows = new ArrayList<String>();
+    boolean compacted = false;
+    for (int i = 0; i < rows.size(); i++) {
+      evaluator.iterate(agg, new Object[] {rows.get(i)});
+      if (i >= WINDOW) {
+        int removed = agg.removed;
+        evaluator.remove(agg, new Object[] {rows.get(i - WINDOW)});
+        compacted |= agg.removed < removed;
+        // the removed values are compacted once they are the majority
+        assertTrue(agg.removed <= 2 * (agg.container.size() - agg.removed));
+      }
+      windows.add(String.valueOf(evaluator.terminate(agg)));
+    }
+    assertTrue(compacted);
+    return windows;
+  }
+
+  @Test
+  public void testToList() throws Exception {
+    List<Object> ints = new ArrayList<Object>();
+    List<Object> strings = new ArrayList<Object>();
+    for (int i = 0; i < 20; i++) {
+      ints.add(new IntWritable(i));
+      strings.add(new Text(String.valueOf(i)));
+    }
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 20; i++) {
+      List<Integer> window = new ArrayList<Integer>();
+      for (int j = Math.max(0, i - WINDOW + 1); j <= i; j++) {
+        window.add(j);
+      }
+      expected.add(window.toString());
+    }
+    // numeric values and values stored in the generic container
+    assertEquals(expected,
+        slideToList(PrimitiveObjectInspectorFactory.writableIntObjectInspector, ints));
+    assertEquals(expected,
+        slideToList(PrimitiveObjectInspectorFactory.writableStringObjectInspector, strings));
+  }
+
+  @Test
+  public void testToListOfArrays() throws Exception {
+    // each row adds two values, null elements being skipped
+    List<Object> rows = new ArrayList<Object>();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 20; i++) {
+      rows.add(Arrays.asList(new IntWritable(2 * i), null, new IntWritable(2 * i + 1)));
+      List<Integer> window = new ArrayList<Integer>();
+      for (int j = Math.max(0, i - WINDOW + 1); j <= i; j++) {
+        window.add(2 * j);
+        window.add(2 * j + 1);
+      }
+      expected.add(window.toString());
+    }
+    assertEquals(expected, slideToList(ObjectInspectorFactory.getStandardListObjectInspector(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector), rows));
+  }
+
+  private static Map<String,Long> toCounters(Object result) {
+    Map<String,Long> counters = new HashMap<String,Long>();
+    for (Map.Entry<?,?> entry: ((Map<?,?>) result).entrySet()) {
+      counters.put(String.valueOf(entry.getKey()), ((LongWritable) entry.getValue()).get());
+    }
+    return counters;
+  }
+
+  @Test
+  public void testCounterMap() throws Exception {
+    for (ObjectInspector oi : new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector}) {
+      GenericUDAFEvaluator evaluator = init(new GenericUDAFCounterMap(), oi);
+      GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator counterMap =
+          (GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator) evaluator;
+      AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+      int[] keys = {1, 2, 1, 3, 3, 3, 1, 2, 2};
+      for (int i = 0; i < keys.length; i++) {
+        evaluator.iterate(agg, new Object[] {key(oi, keys[i])});
+        if (i >= WINDOW) {
+          counterMap.remove(agg, new Object[] {key(oi, keys[i - WINDOW])});
+        }
+        // the keys whose counters reach zero are evicted
+        Map<String,Long> expected = new HashMap<String,Long>();
+        for (int j = Math.max(0, i - WINDOW + 1); j <= i; j++) {
+          String key = String.valueOf(keys[j]);
+          expected.put(key, expected.containsKey(key) ? expected.get(key) + 1 : 1L);
+        }
+        assertEquals(expected, toCounters(evaluator.terminate(agg)));
+      }
+    }
+  }
+
+  private static Object key(ObjectInspector oi, int key) {
+    return oi == PrimitiveObjectInspectorFactory.writableIntObjectInspector
+        ? new IntWritable(key) : new Text(String.valueOf(key));
+  }
+
+  @Test
+  public void testMergeCounterMaps() throws Exception {
+    GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator evaluator =
+        (GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator) init(
+            new GenericUDAFMergeCounterMaps(), ObjectInspectorFactory.getStandardMapObjectInspector(
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+    AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+    Map<Object,Object> monday = new HashMap<Object,Object>();
+    monday.put(new Text("a"), new LongWritable(2));
+    monday.put(new Text("b"), new LongWritable(1));
+    Map<Object,Object> tuesday = new HashMap<Object,Object>();
+    tuesday.put(new Text("a"), new LongWritable(3));
+    evaluator.iterate(agg, new Object[] {monday});
+    evaluator.iterate(agg, new Object[] {tuesday});
+    evaluator.remove(agg, new Object[] {monday});
+    Map<String,Long> expected = new HashMap<String,Long>();
+    expected.put("a", 3L);
+    assertEquals(expected, toCounters(evaluator.terminate(agg)));
+  }
+
+  @Test(expected = HiveException.class)
+  public void testTransitionCounts() throws Exception {
+    GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator evaluator =
+        (GenericUDAFCounterMap.GenericUDAFCounterMapEvaluator) init(
+            new GenericUDAFTransitionCounts(),
+            PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+    Object[] row = {new LongWritable(1), new Text("a")};
+    evaluator.iterate(agg, row);
+    evaluator.remove(agg, row);
+  }
+
+}
@@ -0,0 +1,43 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFSessionsTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFSessionsTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,100\n",
+        "2138,1900\n",
+        "2138,400\n",
+        "2138,5000\n",
+        "2138,2500\n",
+        "2139,100\n",
+        "2139,200\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFSessions.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, 1800) GROUP BY col1");
+    assertEquals("2138\t[{\"start\":100,\"end\":2500,\"count\":4},"
+        + "{\"start\":5000,\"end\":5000,\"count\":1}]", client.fetchOne());
+    assertEquals("2139\t[{\"start\":100,\"end\":200,\"count\":2}]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
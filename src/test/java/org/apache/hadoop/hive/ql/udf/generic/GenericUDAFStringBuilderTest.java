@@ -262,4 +262,61 @@ public class GenericUDAFStringBuilderTest extends HiveTestServiceWithConstants {
 
     getFileSystem().delete(p, false);
   }
+
+  @Test
+  public void testBigintValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,10000000000\n",
+        "2138,-3\n",
+        "2138,10000000000\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2140,-3\n",
+        "2140,10000000000\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFStringBuilder.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t10000000000-310000000000", client.fetchOne());
+    assertEquals("2139\t777", client.fetchOne());
+    assertEquals("2140\t-310000000000", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testStringValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,bb\n",
+        "2138,a\n",
+        "2138,bb\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2140,a\n",
+        "2140,bb\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFStringBuilder.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\tbbabb", client.fetchOne());
+    assertEquals("2139\tccccccccc", client.fetchOne());
+    assertEquals("2140\tabb", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
 }
@@ -67,6 +67,54 @@ public class GenericUDAFToListTest extends HiveTestServiceWithConstants {
     getFileSystem().delete(p, false);
   }
 
+  @Test
+  public void testGroupSizes() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,3\n",
+        "2138,4\n",
+        "2138,5\n",
+        "2138,6\n",
+        "2138,7\n",
+        "2138,8\n",
+        "2138,9\n",
+        "2139,1\n",
+        "2140,2\n",
+        "2141,3\n",
+        "2142,1\n",
+        "2142,2\n",
+        "2142,3\n",
+        "2142,4\n",
+        "2142,5\n",
+        "2142,6\n",
+        "2142,7\n",
+        "2142,8\n",
+        "2142,9\n",
+        "2142,10\n",
+        "2143,4\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    // the buffers are presized and reused from one group to the other
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t[1,2,3,4,5,6,7,8,9]", client.fetchOne());
+    assertEquals("2139\t[1]", client.fetchOne());
+    assertEquals("2140\t[2]", client.fetchOne());
+    assertEquals("2141\t[3]", client.fetchOne());
+    assertEquals("2142\t[1,2,3,4,5,6,7,8,9,10]", client.fetchOne());
+    assertEquals("2143\t[4]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
   @Test
   public void testGroupConcat() throws Exception {
     Path p = createInputFile(FILE,
@@ -315,4 +363,141 @@ public class GenericUDAFToListTest extends HiveTestServiceWithConstants {
 
     getFileSystem().delete(p, false);
   }
+
+  @Test
+  public void testLargeNumeric() throws Exception {
+    // enough values for the list to be packed by blocks
+    String[] lines = new String[3000];
+    StringBuilder expected = new StringBuilder("2138\t[");
+    for (int i = 0; i < lines.length; i++) {
+      long value = i % 3 == 0 ? Long.MIN_VALUE + i : 1000000L * (i % 7) - i;
+      lines[i] = "2138," + value + "\n";
+      expected.append(i == 0 ? "" : ",").append(value);
+    }
+    expected.append("]");
+    Path p = createInputFile(FILE, lines);
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals(expected.toString(), client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testArray() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,2\n",
+        "2138,2,2\n",
+        "2140,5,3\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    // the elements of the arrays are aggregated as if they had been exploded into rows
+    client.execute(FROM_TABLE + " SELECT col1, f(array(col2, col3)) GROUP BY col1");
+    assertEquals("2138\t[1,2,2,2]", client.fetchOne());
+    assertEquals("2140\t[5,3]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testBigintValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,10000000000\n",
+        "2138,-3\n",
+        "2138,10000000000\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2139,7\n",
+        "2140,-3\n",
+        "2140,10000000000\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t[10000000000,-3,10000000000]", client.fetchOne());
+    assertEquals("2139\t[7,7,7]", client.fetchOne());
+    assertEquals("2140\t[-3,10000000000]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testDoubleValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1.5\n",
+        "2138,-0.25\n",
+        "2138,1.5\n",
+        "2139,2.0\n",
+        "2139,2.0\n",
+        "2139,2.0\n",
+        "2140,-0.25\n",
+        "2140,1.5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 DOUBLE)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t[1.5,-0.25,1.5]", client.fetchOne());
+    assertEquals("2139\t[2.0,2.0,2.0]", client.fetchOne());
+    assertEquals("2140\t[-0.25,1.5]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testStringValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,bb\n",
+        "2138,a\n",
+        "2138,bb\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2139,ccc\n",
+        "2140,a\n",
+        "2140,bb\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToList.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2) GROUP BY col1");
+    assertEquals("2138\t[\"bb\",\"a\",\"bb\"]", client.fetchOne());
+    assertEquals("2139\t[\"ccc\",\"ccc\",\"ccc\"]", client.fetchOne());
+    assertEquals("2140\t[\"a\",\"bb\"]", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
 }
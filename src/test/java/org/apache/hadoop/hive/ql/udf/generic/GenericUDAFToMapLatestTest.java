@@ -0,0 +1,95 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFToMapLatestTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFToMapLatestTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,b,2\n",
+        "2138,1,a,1\n",
+        "2138,1,c,3\n",
+        "2138,1,d,0\n",
+        "2139,2,e,5\n",
+        "2139,2,f,4\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 STRING, col4 BIGINT)"
+        + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMapLatest.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3, col4) GROUP BY col1");
+    assertEquals("2138\t{1:\"c\"}", client.fetchOne());
+    assertEquals("2139\t{2:\"e\"}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testStringKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,a,x,2\n",
+        "2138,b,y,1\n",
+        "2138,a,z,3\n",
+        "2138,b,w,0\n",
+        "2139,a,v,5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING, col3 STRING, col4 BIGINT)"
+        + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMapLatest.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3, col4) GROUP BY col1");
+    assertEquals("2138\t{\"a\":\"z\",\"b\":\"y\"}", client.fetchOne());
+    assertEquals("2139\t{\"a\":\"v\"}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testRepeatedKey() throws Exception {
+    // each row of key 1 has a higher version and replaces the previous value
+    String[] lines = new String[3000];
+    for (int i = 0; i < lines.length; i++) {
+      StringBuilder value = new StringBuilder().append(i);
+      for (int j = 0; j < i % 13; j++) {
+        value.append('x');
+      }
+      lines[i] = "2138,1," + value + "," + i + "\n";
+    }
+    Path p = createInputFile(FILE, lines);
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 STRING, col4 BIGINT)"
+        + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMapLatest.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3, col4) GROUP BY col1");
+    assertEquals("2138\t{1:\"2999xxxxxxxxx\"}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
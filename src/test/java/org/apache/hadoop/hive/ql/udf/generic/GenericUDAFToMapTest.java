@@ -100,4 +100,172 @@ public class GenericUDAFToMapTest extends HiveTestServiceWithConstants {
     // clean up.
     getFileSystem().delete(p, false);
   }
+
+  @Test
+  public void testComplexValues() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,11,111\n",
+        "2138,1,12,112\n",
+        "2138,2,13,113\n",
+        "2140,1,10,110\n",
+        "2140,5,20,120\n",
+        "2140,5,40,140\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 INT, col4 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    // the values overwritten by later ones are never deserialized
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, array(col3, col4)) GROUP BY col1");
+    assertEquals("2138\t{1:[12,112],2:[13,113]}", client.fetchOne());
+    assertEquals("2140\t{1:[10,110],5:[40,140]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testRepeatedKey() throws Exception {
+    // the values of key 1 are replaced 3000 times with values of varying lengths
+    String[] lines = new String[3001];
+    for (int i = 0; i < 3000; i++) {
+      StringBuilder value = new StringBuilder().append(i);
+      for (int j = 0; j < i % 13; j++) {
+        value.append('x');
+      }
+      lines[i] = "2138,1," + value + "\n";
+    }
+    lines[3000] = "2138,2,b\n";
+    Path p = createInputFile(FILE, lines);
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{1:\"2999xxxxxxxxx\",2:\"b\"}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1,a\n",
+        "2138,2,b\n",
+        "2138,1,c\n",
+        "2140,5,d\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    // without map-side aggregation, the maps are built in a single stage (COMPLETE mode)
+    client.execute("SET hive.map.aggr=false");
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{1:\"c\",2:\"b\"}", client.fetchOne());
+    assertEquals("2140\t{5:\"d\"}", client.fetchOne());
+    client.execute("SET hive.map.aggr=true");
+
+    client.execute(DROP_TABLE);
+
+    // clean up.
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testBigintKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,10000000000,0\n",
+        "2138,-3,1\n",
+        "2138,10000000000,2\n",
+        "2139,7,3\n",
+        "2139,7,4\n",
+        "2139,7,5\n",
+        "2140,-3,6\n",
+        "2140,10000000000,7\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{10000000000:2,-3:1}", client.fetchOne());
+    assertEquals("2139\t{7:5}", client.fetchOne());
+    assertEquals("2140\t{-3:6,10000000000:7}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testDoubleKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1.5,0\n",
+        "2138,-0.25,1\n",
+        "2138,1.5,2\n",
+        "2139,2.0,3\n",
+        "2139,2.0,4\n",
+        "2139,2.0,5\n",
+        "2140,-0.25,6\n",
+        "2140,1.5,7\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 DOUBLE, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{1.5:2,-0.25:1}", client.fetchOne());
+    assertEquals("2139\t{2.0:5}", client.fetchOne());
+    assertEquals("2140\t{-0.25:6,1.5:7}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testStringKeys() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,bb,0\n",
+        "2138,a,1\n",
+        "2138,bb,2\n",
+        "2139,ccc,3\n",
+        "2139,ccc,4\n",
+        "2139,ccc,5\n",
+        "2140,a,6\n",
+        "2140,bb,7\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 STRING, col3 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFToMap.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{\"bb\":2,\"a\":1}", client.fetchOne());
+    assertEquals("2139\t{\"ccc\":5}", client.fetchOne());
+    assertEquals("2140\t{\"a\":6,\"bb\":7}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
 }
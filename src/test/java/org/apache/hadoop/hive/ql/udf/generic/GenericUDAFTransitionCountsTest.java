@@ -0,0 +1,66 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDAFTransitionCountsTest extends HiveTestServiceWithConstants {
+
+  public GenericUDAFTransitionCountsTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,30,a\n",
+        "2138,10,a\n",
+        "2138,20,a\n",
+        "2139,1,a\n",
+        "2139,2,b\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFTransitionCounts.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":\"a\",\"col2\":\"a\"}],\"counts\":[2]}",
+        client.fetchOne());
+    assertEquals("2139\t{\"keys\":[{\"col1\":\"a\",\"col2\":\"b\"}],\"counts\":[1]}",
+        client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testUnsortedRows() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,30,a\n",
+        "2138,10,b\n",
+        "2138,40,b\n",
+        "2138,20,c\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 BIGINT, col3 STRING)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f, GenericUDAFTransitionCounts.class.getName()));
+
+    client.execute(FROM_TABLE + " SELECT col1, f(col2, col3) GROUP BY col1");
+    assertEquals("2138\t{\"keys\":[{\"col1\":\"b\",\"col2\":\"c\"},"
+        + "{\"col1\":\"c\",\"col2\":\"a\"},{\"col1\":\"a\",\"col2\":\"b\"}],"
+        + "\"counts\":[1,1,1]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
@@ -0,0 +1,74 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDFCounterMapEntropyTest extends HiveTestServiceWithConstants {
+
+  public GenericUDFCounterMapEntropyTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testCounterMapEntropy() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,3\n",
+        "2138,4\n",
+        "2139,7\n",
+        "2139,5\n",
+        "2139,7\n",
+        "2139,5\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f,
+        GenericUDFCounterMapEntropy.class.getName()));
+    client.execute(CREATE_FUNCTION + "counter_map AS '"
+        + GenericUDAFCounterMap.class.getName() + "'");
+
+    client.execute("SELECT col1, f(counters) FROM ("
+        + FROM_TABLE + " SELECT col1, counter_map(col2) counters GROUP BY col1) t ORDER BY col1");
+    assertEquals("2138\t2.0", client.fetchOne());
+    assertEquals("2139\t1.0", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testNullKey() throws Exception {
+    Path p = createInputFile(FILE,
+        "2140,\\N\n",
+        "2140,4\n",
+        "2140,\\N\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f,
+        GenericUDFCounterMapEntropy.class.getName()));
+    // unlike the keys of a map, a null key in an array survives the shuffle
+    client.execute(CREATE_FUNCTION + "counter_map_arrays AS '"
+        + GenericUDAFCounterMapArrays.class.getName() + "'");
+
+    // the null key is counted like the others
+    client.execute("SELECT col1, f(counters) FROM ("
+        + FROM_TABLE + " SELECT col1, counter_map_arrays(col2) counters GROUP BY col1) t");
+    assertEquals("2140\t0.9182958340544898", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
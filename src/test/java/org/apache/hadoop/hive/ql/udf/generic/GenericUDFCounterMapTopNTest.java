@@ -0,0 +1,78 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.jointhegrid.hive_test.HiveTestServiceWithConstants;
+
+public class GenericUDFCounterMapTopNTest extends HiveTestServiceWithConstants {
+
+  public GenericUDFCounterMapTopNTest() throws IOException {
+    super();
+  }
+
+  @Test
+  public void testCounterMapTopN() throws Exception {
+    Path p = createInputFile(FILE,
+        "2138,1\n",
+        "2138,2\n",
+        "2138,2\n",
+        "2138,3\n",
+        "2138,3\n",
+        "2138,3\n",
+        "2139,7\n",
+        "2139,5\n",
+        "2139,7\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f,
+        GenericUDFCounterMapTopN.class.getName()));
+    client.execute(CREATE_FUNCTION + "counter_map AS '"
+        + GenericUDAFCounterMap.class.getName() + "'");
+
+    client.execute("SELECT col1, f(counters, 2), f(counters, 0) FROM ("
+        + FROM_TABLE + " SELECT col1, counter_map(col2) counters GROUP BY col1) t ORDER BY col1");
+    assertEquals("2138\t{\"keys\":[3,2],\"counts\":[3,2]}\t"
+        + "{\"keys\":[],\"counts\":[]}", client.fetchOne());
+    assertEquals("2139\t{\"keys\":[7,5],\"counts\":[2,1]}\t"
+        + "{\"keys\":[],\"counts\":[]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+  @Test
+  public void testNullKey() throws Exception {
+    Path p = createInputFile(FILE,
+        "2140,\\N\n",
+        "2140,4\n",
+        "2140,\\N\n");
+
+    client.execute(DROP_TABLE);
+    client.execute(CREATE_TABLE + " (col1 INT, col2 INT)" + ROW_FORMAT_COMMA);
+    client.execute(String.format(LOAD_LOCAL_INTO_TABLE, p.toString()));
+    client.execute(ADD_THIS_JAR);
+    client.execute(String.format(CREATE_FUNCTION_f,
+        GenericUDFCounterMapTopN.class.getName()));
+    // unlike the keys of a map, a null key in an array survives the shuffle
+    client.execute(CREATE_FUNCTION + "counter_map_arrays AS '"
+        + GenericUDAFCounterMapArrays.class.getName() + "'");
+
+    // the null key is counted like the others
+    client.execute("SELECT col1, f(counters, 2), f(counters, 1) FROM ("
+        + FROM_TABLE + " SELECT col1, counter_map_arrays(col2) counters GROUP BY col1) t");
+    assertEquals("2140\t{\"keys\":[null,4],\"counts\":[2,1]}\t"
+        + "{\"keys\":[null],\"counts\":[2]}", client.fetchOne());
+
+    client.execute(DROP_TABLE);
+
+    getFileSystem().delete(p, false);
+  }
+
+}
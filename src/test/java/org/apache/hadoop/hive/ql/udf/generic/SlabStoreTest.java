@@ -0,0 +1,156 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class SlabStoreTest {
+
+  private static final ObjectInspector STRING_OI =
+      PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+
+  // values of growing sizes, some larger than a slab, with a null every seventh value
+  private static List<Text> values(int n) {
+    List<Text> values = new ArrayList<Text>(n);
+    for (int i = 0; i < n; i++) {
+      if (i % 7 == 3) {
+        values.add(null);
+      } else {
+        char[] chars = new char[i % 50 == 0 ? 70000 + i : i % 300];
+        Arrays.fill(chars, (char) ('a' + i % 26));
+        values.add(new Text(new String(chars)));
+      }
+    }
+    return values;
+  }
+
+  private static void checkValueList(boolean direct) {
+    List<Text> values = values(1000);
+    SlabStore.ValueList list = new SlabStore.ValueList(direct);
+    // filled twice to check that a cleared list is reusable
+    for (int round = 0; round < 2; round++) {
+      list.clear();
+      for (Text value : values) {
+        list.add(value, STRING_OI);
+      }
+      assertEquals(values.size(), list.size());
+      // sequential reads
+      assertEquals(values, new ArrayList<Object>(list));
+      // random reads, backwards included
+      for (int i : new int[] {999, 0, 500, 3, 499, 50, 1}) {
+        assertEquals(values.get(i), list.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testValueList() {
+    checkValueList(false);
+  }
+
+  @Test
+  public void testDirectValueList() {
+    checkValueList(true);
+  }
+
+  @Test
+  public void testValueListOfStructs() {
+    ObjectInspector oi = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("i", "s"),
+        Arrays.asList((ObjectInspector) PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+            STRING_OI));
+    SlabStore.ValueList list = new SlabStore.ValueList(true);
+    List<Object> expected = new ArrayList<Object>();
+    for (int i = 0; i < 5000; i++) {
+      Object value = Arrays.asList(new IntWritable(i), i % 3 == 0 ? null : new Text("s" + i));
+      expected.add(value);
+      list.add(value, oi);
+    }
+    assertEquals(expected, new ArrayList<Object>(list));
+  }
+
+  private static void checkValueMap(boolean direct) {
+    List<Text> values = values(1000);
+    SlabStore store = new SlabStore(direct);
+    Map<Object,Object> handles = new HashMap<Object,Object>();
+    for (int i = 0; i < values.size(); i++) {
+      handles.put(i, store.add(values.get(i), STRING_OI));
+    }
+    Map<Object,Object> map = new SlabStore.ValueMap(handles, store, false);
+    assertEquals(values.size(), map.size());
+    for (int i = 0; i < values.size(); i++) {
+      assertTrue(map.containsKey(i));
+      assertEquals(values.get(i), map.get(i));
+    }
+    assertNull(map.get(-1));
+    for (Map.Entry<Object,Object> entry : map.entrySet()) {
+      assertEquals(values.get((Integer) entry.getKey()), entry.getValue());
+    }
+    // lazy values are only valid until the next one is read
+    Map<Object,Object> lazy = new SlabStore.ValueMap(handles, store, true);
+    StringObjectInspector lazyOI = (StringObjectInspector) store.getLazyObjectInspector();
+    for (int i = 0; i < values.size(); i++) {
+      Object value = lazy.get(i);
+      assertEquals(values.get(i), value == null ? null : lazyOI.getPrimitiveWritableObject(value));
+    }
+  }
+
+  @Test
+  public void testValueMap() {
+    checkValueMap(false);
+  }
+
+  @Test
+  public void testDirectValueMap() {
+    checkValueMap(true);
+  }
+
+  private static void checkRepeatedKeys(boolean direct) {
+    SlabStore store = new SlabStore(direct);
+    Map<Object,Object> handles = new HashMap<Object,Object>();
+    Map<Object,Object> expected = new HashMap<Object,Object>();
+    long maxBytes = 0L;
+    // three keys replaced over and over with values of varying sizes, nulls included
+    for (int i = 0; i < 100000; i++) {
+      Integer key = i % 3;
+      Text value = i % 11 == 0 ? null : new Text(String.valueOf(i * (i % 5 == 0 ? 1000L : 1L)));
+      Object previous = handles.get(key);
+      handles.put(key, previous == null
+          ? store.add(value, STRING_OI) : store.replace((Long) previous, value, STRING_OI));
+      if (store.isFragmented()) {
+        store.compact(handles);
+      }
+      expected.put(key, value);
+      maxBytes = Math.max(maxBytes, store.getBytes());
+    }
+    // the values replaced are not accumulated
+    assertTrue(maxBytes < 1024);
+    assertEquals(expected,
+        new HashMap<Object,Object>(new SlabStore.ValueMap(handles, store, false)));
+  }
+
+  @Test
+  public void testRepeatedKeys() {
+    checkRepeatedKeys(false);
+  }
+
+  @Test
+  public void testDirectRepeatedKeys() {
+    checkRepeatedKeys(true);
+  }
+
+}
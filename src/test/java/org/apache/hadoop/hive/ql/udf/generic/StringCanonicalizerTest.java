@@ -0,0 +1,74 @@
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class StringCanonicalizerTest {
+
+  @Test
+  public void testDisabled() {
+    assertNull(StringCanonicalizer.create(0));
+  }
+
+  @Test
+  public void testEqualStrings() {
+    StringCanonicalizer canonicalizer = StringCanonicalizer.create(1024);
+    Text text = new Text("abc");
+    Text cached = canonicalizer.canonicalize(text);
+    // a copy is cached, the text given may be reused by its reader
+    assertNotSame(text, cached);
+    assertEquals(text, cached);
+    assertSame(cached, canonicalizer.canonicalize(new Text("abc")));
+    text.set("xyz");
+    assertEquals(new Text("abc"), cached);
+  }
+
+  @Test
+  public void testLongStrings() {
+    StringCanonicalizer canonicalizer = StringCanonicalizer.create(1024);
+    char[] chars = new char[StringCanonicalizer.MAX_LENGTH + 1];
+    Arrays.fill(chars, 'a');
+    Text text = new Text(new String(chars));
+    Text copy = canonicalizer.canonicalize(text);
+    assertNotSame(text, copy);
+    assertEquals(text, copy);
+    // copied but never cached
+    assertNotSame(copy, canonicalizer.canonicalize(text));
+  }
+
+  @Test
+  public void testCollision() {
+    // two slots only
+    StringCanonicalizer canonicalizer = StringCanonicalizer.create(2);
+    Text a = new Text("a");
+    Text b = null;
+    for (int i = 0; b == null; i++) {
+      Text candidate = new Text("b" + i);
+      if (((slot(candidate) ^ slot(a)) & 1) == 0) {
+        b = candidate;
+      }
+    }
+    Text cachedA = canonicalizer.canonicalize(a);
+    assertSame(cachedA, canonicalizer.canonicalize(a));
+    // b takes the slot of a, which is copied again the next time
+    Text cachedB = canonicalizer.canonicalize(b);
+    assertSame(cachedB, canonicalizer.canonicalize(b));
+    Text copyA = canonicalizer.canonicalize(a);
+    assertNotSame(cachedA, copyA);
+    assertEquals(a, copyA);
+    assertNotSame(cachedB, canonicalizer.canonicalize(b));
+  }
+
+  private static int slot(Text text) {
+    return WritableComparator.hashBytes(text.getBytes(), text.getLength());
+  }
+
+}